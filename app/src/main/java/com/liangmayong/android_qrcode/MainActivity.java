@@ -10,6 +10,8 @@ import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.liangmayong.qrcode.decoding.DecodeResultStore;
+
 public class MainActivity extends Activity {
     private final static int SCANNIN_GREQUEST_CODE = 1;
     private TextView mTextView;
@@ -49,7 +51,7 @@ public class MainActivity extends Activity {
                     long decode_time = bundle.getLong("time");
                     mTextView.setText(format + "\n" + result + "\n" + decode_time + " ms");
                     try {
-                        Bitmap bitmap = (Bitmap) data.getParcelableExtra("bitmap");
+                        Bitmap bitmap = DecodeResultStore.takeBitmap(data);
                         if (bitmap != null) {
                             mImageView.setImageBitmap(bitmap);
                         }
@@ -9,8 +9,8 @@ import android.util.Log;
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.LuminanceSource;
 import com.google.zxing.Result;
-import com.google.zxing.common.GlobalHistogramBinarizer;
-import com.google.zxing.common.HybridBinarizer;
+import com.liangmayong.qrcode.decoding.DecodeBinarizer;
+import com.liangmayong.qrcode.decoding.DecodeStatistics;
 
 import java.util.Hashtable;
 
@@ -80,19 +80,22 @@ public final class DecodeBitmapHandler {
         Result rawResult = null;
         DecodeBitmapReader decodeReader = new DecodeBitmapReader();
         Hashtable hashtable = new Hashtable();
+        // Still images learn their own order, the live scan loop's is left alone.
+        DecodeStatistics statistics = DecodeStatistics.getBitmapInstance();
         try {
             if (source != null) {
-                rawResult = decodeReader.decode(new BinaryBitmap(new GlobalHistogramBinarizer(source)), hashtable);
-            }
-        } catch (Exception re) {
-            try {
-                if (source != null) {
-                    rawResult = decodeReader.decode(new BinaryBitmap(new HybridBinarizer(source)), hashtable);
+                for (DecodeBinarizer binarizer : statistics.getBinarizerOrder()) {
+                    try {
+                        rawResult = decodeReader.decode(new BinaryBitmap(binarizer.create(source)), hashtable);
+                        statistics.recordSuccess(binarizer, rawResult.getBarcodeFormat());
+                        break;
+                    } catch (Exception re) {
+                    } finally {
+                        decodeReader.reset();
+                    }
                 }
-            } catch (Exception r) {
             }
         } finally {
-            decodeReader.reset();
             decodeReader = null;
         }
         if (rawResult != null) {
@@ -0,0 +1,864 @@
+package com.liangmayong.qrcode.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link CameraBackend} on Camera2. Frames come from an ImageReader in YUV_420_888, and the
+ * decoders read the Y plane straight out of the image buffer, padded rows and all, so no frame is
+ * ever copied into a byte[]. Compared with the old API it can stream larger preview sizes and
+ * supports manual focus and exposure.
+ * <p>
+ * {@link #open(SurfaceHolder, Point)} picks the preview size and returns without waiting for the
+ * device; a preview started before the device is open begins once it is. If the capture session
+ * cannot be set up or the device is lost, the preview stops and the handler set with
+ * {@link #setErrorHandler(Handler, int)} is told.
+ * <p>
+ * Needs Android 5.0. Check {@link #isSupported(Context)} first: on devices whose camera only has
+ * LEGACY Camera2 support, Camera2 runs on top of the old API and the old path is faster.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class Camera2Backend implements CameraBackend {
+
+    private static final String TAG = Camera2Backend.class.getSimpleName();
+
+    /**
+     * Largest preview size picked by default, in pixels of the unrotated frame.
+     */
+    public static final int DEFAULT_MAX_PREVIEW_WIDTH = 1920;
+    public static final int DEFAULT_MAX_PREVIEW_HEIGHT = 1080;
+
+    private static final long AUTOFOCUS_INTERVAL_MS = 1500L;
+    /**
+     * Aspect ratios this close to the best one count as equally good; the larger size wins.
+     */
+    private static final float ASPECT_TOLERANCE = 0.05f;
+
+    private final android.hardware.camera2.CameraManager cameraService;
+    private final FrameSlot<PreviewFrame> frameSlot = new FrameSlot<PreviewFrame>();
+    private int maxPreviewWidth = DEFAULT_MAX_PREVIEW_WIDTH;
+    private int maxPreviewHeight = DEFAULT_MAX_PREVIEW_HEIGHT;
+    private float focusDistance = -1f;
+    private long exposureTimeNanos;
+    private int sensitivity;
+    private String flashMode = Camera.Parameters.FLASH_MODE_OFF;
+    private int fpsCeiling;
+
+    private OpenCallback openCallback;
+    private Handler cameraHandler;
+    private CameraCharacteristics characteristics;
+    private volatile CameraDevice device;
+    private Surface previewSurface;
+    private Point previewSize;
+    private volatile ImageStream imageStream;
+    private volatile CameraCaptureSession session;
+    private volatile boolean previewing;
+    private Handler autoFocusHandler;
+    private int autoFocusMessage;
+    /**
+     * Counts focus runs, so the trigger result of an earlier run is not taken for the current one.
+     */
+    private int autoFocusRun;
+    private boolean autoFocusRunning;
+    /**
+     * Frame number of the current run's trigger, -1 until its result came in.
+     */
+    private long autoFocusTriggerFrame = -1;
+    private Handler errorHandler;
+    private int errorMessage;
+
+    /**
+     * Feeds the results of the repeating request to the focus run, if one is waiting for the lens.
+     */
+    private final CameraCaptureSession.CaptureCallback autoFocusWatcher = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                       TotalCaptureResult result) {
+            synchronized (Camera2Backend.this) {
+                checkAutoFocus(result);
+            }
+        }
+    };
+
+    public Camera2Backend(Context context) {
+        this.cameraService = (android.hardware.camera2.CameraManager)
+                context.getSystemService(Context.CAMERA_SERVICE);
+    }
+
+    /**
+     * @return true if the device has a back camera with more than LEGACY Camera2 support
+     */
+    public static boolean isSupported(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        try {
+            android.hardware.camera2.CameraManager cameraService = (android.hardware.camera2.CameraManager)
+                    context.getSystemService(Context.CAMERA_SERVICE);
+            String cameraId = findBackCamera(cameraService);
+            if (cameraId == null) {
+                return false;
+            }
+            Integer level = cameraService.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            return level != null && level != CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * setMaxPreviewSize
+     * <p>
+     * Bounds the preview size. The largest size with the aspect ratio of the screen within the
+     * bounds is used; a larger size resolves smaller codes but costs more to decode. Takes effect
+     * the next time the camera opens.
+     *
+     * @param width  width default = {@link #DEFAULT_MAX_PREVIEW_WIDTH}
+     * @param height height default = {@link #DEFAULT_MAX_PREVIEW_HEIGHT}
+     */
+    public void setMaxPreviewSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Preview size must be positive: " + width + "x" + height);
+        }
+        this.maxPreviewWidth = Math.max(width, height);
+        this.maxPreviewHeight = Math.min(width, height);
+    }
+
+    /**
+     * setFocusDistance
+     * <p>
+     * Focuses manually, e.g. for a fixed mount at a known distance. Ignored by cameras that cannot
+     * focus manually.
+     *
+     * @param diopters diopters, 1 / distance in meters, 0 for infinity; negative for autofocus
+     *                 default = -1
+     */
+    public void setFocusDistance(float diopters) {
+        this.focusDistance = diopters;
+        updateRepeatingRequest();
+    }
+
+    /**
+     * setManualExposure
+     * <p>
+     * Exposes manually, e.g. a short exposure against motion blur. Both values are clamped to
+     * what the sensor supports. Ignored by cameras without manual sensor control.
+     *
+     * @param exposureTimeNanos exposureTimeNanos, 0 for auto exposure default = 0
+     * @param sensitivity       ISO sensitivity, 0 for auto exposure default = 0
+     */
+    public void setManualExposure(long exposureTimeNanos, int sensitivity) {
+        if (exposureTimeNanos < 0 || sensitivity < 0) {
+            throw new IllegalArgumentException("Exposure must not be negative.");
+        }
+        this.exposureTimeNanos = exposureTimeNanos;
+        this.sensitivity = sensitivity;
+        updateRepeatingRequest();
+    }
+
+    @Override
+    public void open(SurfaceHolder holder, Point screenResolution) throws IOException {
+        if (isOpen()) {
+            return;
+        }
+        // Let go of a device that was lost since the last open.
+        close();
+        String cameraId;
+        try {
+            cameraId = findBackCamera(cameraService);
+            if (cameraId == null) {
+                throw new IOException("No back camera");
+            }
+            characteristics = cameraService.getCameraCharacteristics(cameraId);
+        } catch (CameraAccessException e) {
+            throw new IOException(e.getMessage());
+        }
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size size = findPreviewSize(map, screenResolution);
+        if (size == null) {
+            throw new IOException("No YUV preview size");
+        }
+        previewSize = new Point(size.getWidth(), size.getHeight());
+        Log.d(TAG, "Preview size: " + previewSize);
+        if (holder != null) {
+            holder.setFixedSize(size.getWidth(), size.getHeight());
+            previewSurface = holder.getSurface();
+        }
+
+        HandlerThread cameraThread = new HandlerThread("Camera2Backend");
+        cameraThread.start();
+        OpenCallback callback = new OpenCallback(cameraThread);
+        synchronized (this) {
+            cameraHandler = new Handler(cameraThread.getLooper());
+            openCallback = callback;
+        }
+        // The device opens on the camera thread; the UI thread does not wait for it.
+        try {
+            cameraService.openCamera(cameraId, callback, cameraHandler);
+        } catch (CameraAccessException e) {
+            openFailed(callback);
+            throw new IOException(e.getMessage());
+        } catch (SecurityException e) {
+            openFailed(callback);
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private void openFailed(OpenCallback callback) {
+        synchronized (this) {
+            // No callback is coming, close() may quit the thread right away.
+            callback.pending = false;
+        }
+        close();
+    }
+
+    @Override
+    public void close() {
+        stopPreview();
+        synchronized (this) {
+            CameraDevice device = this.device;
+            this.device = null;
+            if (device != null) {
+                device.close();
+            }
+            if (openCallback != null) {
+                openCallback.cancel();
+                openCallback = null;
+            }
+            cameraHandler = null;
+        }
+        previewSurface = null;
+    }
+
+    /**
+     * @return true while the device is open or still opening
+     */
+    @Override
+    public synchronized boolean isOpen() {
+        return openCallback != null && (openCallback.pending || device != null);
+    }
+
+    @Override
+    public Point getPreviewSize() {
+        return previewSize;
+    }
+
+    @Override
+    public synchronized void startPreview(int bufferCount) {
+        if (!isOpen() || previewing) {
+            return;
+        }
+        frameSlot.resetFrameCounts();
+        // One more image than may be out at once, acquireLatestImage needs it to skip ahead.
+        final ImageStream stream = new ImageStream(ImageReader.newInstance(previewSize.x, previewSize.y,
+                ImageFormat.YUV_420_888, bufferCount + 1));
+        stream.reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                PreviewFrame frame = stream.acquireLatestFrame();
+                if (frame != null) {
+                    PreviewFrame staleFrame = frameSlot.publish(frame, frame.getWidth(), frame.getHeight());
+                    if (staleFrame != null) {
+                        releaseFrame(staleFrame);
+                    }
+                }
+            }
+        }, cameraHandler);
+        imageStream = stream;
+        previewing = true;
+        if (device != null) {
+            createSession(device);
+        }
+        // Otherwise the session is created once the device has opened.
+    }
+
+    /**
+     * Creates the capture session for the running preview. Called with the lock held.
+     */
+    private void createSession(CameraDevice device) {
+        final ImageStream stream = imageStream;
+        List<Surface> surfaces = new ArrayList<Surface>();
+        surfaces.add(stream.reader.getSurface());
+        if (previewSurface != null) {
+            surfaces.add(previewSurface);
+        }
+        try {
+            device.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession configured) {
+                    synchronized (Camera2Backend.this) {
+                        // The preview may have been stopped, or restarted with another stream.
+                        if (!previewing || imageStream != stream) {
+                            configured.close();
+                            return;
+                        }
+                        session = configured;
+                        updateRepeatingRequest();
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession configured) {
+                    synchronized (Camera2Backend.this) {
+                        if (previewing && imageStream == stream) {
+                            previewFailed("Capture session configuration failed");
+                        }
+                    }
+                }
+            }, cameraHandler);
+        } catch (CameraAccessException e) {
+            Log.w(TAG, e);
+            previewFailed("Capture session not created");
+        }
+    }
+
+    /**
+     * Stops a preview that cannot go on and tells the error handler. Called with the lock held.
+     */
+    private void previewFailed(String reason) {
+        Log.w(TAG, reason);
+        stopPreview();
+        if (errorHandler != null) {
+            errorHandler.sendEmptyMessage(errorMessage);
+        }
+    }
+
+    @Override
+    public synchronized void stopPreview() {
+        if (!previewing) {
+            return;
+        }
+        previewing = false;
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        frameSlot.clearRequests();
+        PreviewFrame waitingFrame = frameSlot.clear();
+        if (waitingFrame != null) {
+            releaseFrame(waitingFrame);
+        }
+        if (imageStream != null) {
+            imageStream.close();
+            imageStream = null;
+        }
+        autoFocusRunning = false;
+        if (autoFocusHandler != null) {
+            autoFocusHandler.removeMessages(autoFocusMessage);
+            autoFocusHandler = null;
+        }
+    }
+
+    @Override
+    public boolean isPreviewing() {
+        return previewing;
+    }
+
+    @Override
+    public void requestFrame(Handler handler, int message) {
+        if (previewing) {
+            frameSlot.addRequest(handler, message);
+        }
+    }
+
+    @Override
+    public PreviewFrame takeFrame() {
+        return frameSlot.take();
+    }
+
+    @Override
+    public void releaseFrame(PreviewFrame frame) {
+        Object token = frame.getToken();
+        if (token instanceof StreamImage) {
+            ((StreamImage) token).release();
+        }
+    }
+
+    @Override
+    public void clearFrameRequests() {
+        frameSlot.clearRequests();
+    }
+
+    @Override
+    public long getDeliveredFrameCount() {
+        return frameSlot.getDeliveredFrameCount();
+    }
+
+    @Override
+    public long getUnclaimedFrameCount() {
+        return frameSlot.getUnclaimedFrameCount();
+    }
+
+    @Override
+    public synchronized void setErrorHandler(Handler handler, int message) {
+        errorHandler = handler;
+        errorMessage = message;
+    }
+
+    /**
+     * Triggers a focus run and watches the AF state of the frames from the trigger on; the
+     * message says whether the lens locked in focus. The lens stays locked until the next trigger,
+     * the repeating request itself never triggers.
+     */
+    @Override
+    public void requestAutoFocus(Handler handler, int message) {
+        CameraCaptureSession session = this.session;
+        if (session == null || chooseAfMode() != CameraMetadata.CONTROL_AF_MODE_AUTO) {
+            // Continuous or manual focus needs no triggers.
+            return;
+        }
+        final int run;
+        synchronized (this) {
+            if (autoFocusHandler != null) {
+                autoFocusHandler.removeMessages(autoFocusMessage);
+            }
+            autoFocusHandler = handler;
+            autoFocusMessage = message;
+            autoFocusRunning = true;
+            autoFocusTriggerFrame = -1;
+            run = ++autoFocusRun;
+        }
+        try {
+            CaptureRequest.Builder builder = newRequest();
+            builder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START);
+            session.capture(builder.build(), new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                               TotalCaptureResult result) {
+                    synchronized (Camera2Backend.this) {
+                        if (run == autoFocusRun && autoFocusRunning) {
+                            autoFocusTriggerFrame = result.getFrameNumber();
+                            checkAutoFocus(result);
+                        }
+                    }
+                }
+
+                @Override
+                public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request,
+                                            CaptureFailure failure) {
+                    synchronized (Camera2Backend.this) {
+                        if (run == autoFocusRun && autoFocusRunning) {
+                            finishAutoFocus(false);
+                        }
+                    }
+                }
+            }, cameraHandler);
+        } catch (CameraAccessException e) {
+            Log.w(TAG, e);
+            synchronized (this) {
+                if (run == autoFocusRun && autoFocusRunning) {
+                    finishAutoFocus(false);
+                }
+            }
+        } catch (IllegalStateException e) {
+            // The session closed in the meantime.
+        }
+    }
+
+    /**
+     * Ends the focus run once the AF state of a frame from the trigger on is locked. Called with
+     * the lock held.
+     */
+    private void checkAutoFocus(CaptureResult result) {
+        if (!autoFocusRunning || autoFocusTriggerFrame < 0 || result.getFrameNumber() < autoFocusTriggerFrame) {
+            return;
+        }
+        Integer state = result.get(CaptureResult.CONTROL_AF_STATE);
+        if (state == null) {
+            // The device does not report it; the run cannot be told apart from a failed one.
+            finishAutoFocus(false);
+        } else if (state == CameraMetadata.CONTROL_AF_STATE_FOCUSED_LOCKED) {
+            finishAutoFocus(true);
+        } else if (state == CameraMetadata.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
+            finishAutoFocus(false);
+        }
+        // Otherwise the lens is still scanning.
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void finishAutoFocus(boolean focused) {
+        autoFocusRunning = false;
+        if (autoFocusHandler != null) {
+            autoFocusHandler.sendMessageDelayed(autoFocusHandler.obtainMessage(autoFocusMessage, focused),
+                    AUTOFOCUS_INTERVAL_MS);
+        }
+    }
+
+    @Override
+    public int setPreviewFpsCeiling(int maxFps) {
+        Range<Integer> range = findFpsRange(maxFps);
+        if (range == null) {
+            return 0;
+        }
+        if (range.getUpper() != fpsCeiling) {
+            fpsCeiling = range.getUpper();
+            updateRepeatingRequest();
+        }
+        return fpsCeiling;
+    }
+
+    @Override
+    public void resetPreviewFpsRange() {
+        if (fpsCeiling != 0) {
+            // Without a target range in the requests, auto exposure picks its own again.
+            fpsCeiling = 0;
+            updateRepeatingRequest();
+        }
+    }
+
+    @Override
+    public void setFlashMode(String flashMode) {
+        this.flashMode = flashMode;
+        updateRepeatingRequest();
+    }
+
+    @Override
+    public String getFlashMode() {
+        return flashMode;
+    }
+
+    private void updateRepeatingRequest() {
+        CameraCaptureSession session = this.session;
+        if (session == null || !previewing) {
+            return;
+        }
+        try {
+            session.setRepeatingRequest(newRequest().build(), autoFocusWatcher, cameraHandler);
+        } catch (CameraAccessException e) {
+            Log.w(TAG, e);
+        } catch (IllegalStateException e) {
+            // The session closed in the meantime.
+        }
+    }
+
+    private CaptureRequest.Builder newRequest() throws CameraAccessException {
+        CameraDevice device = this.device;
+        ImageStream stream = imageStream;
+        if (device == null || stream == null) {
+            throw new IllegalStateException("Preview stopped");
+        }
+        CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+        builder.addTarget(stream.reader.getSurface());
+        if (previewSurface != null) {
+            builder.addTarget(previewSurface);
+        }
+        int afMode = chooseAfMode();
+        builder.set(CaptureRequest.CONTROL_AF_MODE, afMode);
+        // Only the single capture of requestAutoFocus triggers, every other request is idle.
+        builder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+        if (afMode == CameraMetadata.CONTROL_AF_MODE_OFF && focusDistance >= 0) {
+            builder.set(CaptureRequest.LENS_FOCUS_DISTANCE, focusDistance);
+        }
+        boolean torch = Camera.Parameters.FLASH_MODE_TORCH.equals(flashMode);
+        if (exposureTimeNanos > 0 && sensitivity > 0 && hasCapability(
+                CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_MANUAL_SENSOR)) {
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_OFF);
+            builder.set(CaptureRequest.SENSOR_EXPOSURE_TIME,
+                    clamp(characteristics.get(CameraCharacteristics.SENSOR_INFO_EXPOSURE_TIME_RANGE), exposureTimeNanos));
+            builder.set(CaptureRequest.SENSOR_SENSITIVITY,
+                    clamp(characteristics.get(CameraCharacteristics.SENSOR_INFO_SENSITIVITY_RANGE), sensitivity));
+        } else {
+            builder.set(CaptureRequest.CONTROL_AE_MODE, Camera.Parameters.FLASH_MODE_AUTO.equals(flashMode)
+                    ? CameraMetadata.CONTROL_AE_MODE_ON_AUTO_FLASH : CameraMetadata.CONTROL_AE_MODE_ON);
+            Range<Integer> range = fpsCeiling > 0 ? findFpsRange(fpsCeiling) : null;
+            if (range != null) {
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range);
+            }
+        }
+        builder.set(CaptureRequest.FLASH_MODE, torch
+                ? CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+        return builder;
+    }
+
+    private int chooseAfMode() {
+        Float minimumFocusDistance = characteristics.get(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE);
+        if (focusDistance >= 0 && minimumFocusDistance != null && minimumFocusDistance > 0) {
+            return CameraMetadata.CONTROL_AF_MODE_OFF;
+        }
+        int[] modes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        if (contains(modes, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE)) {
+            return CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE;
+        }
+        if (contains(modes, CameraMetadata.CONTROL_AF_MODE_AUTO)) {
+            return CameraMetadata.CONTROL_AF_MODE_AUTO;
+        }
+        return CameraMetadata.CONTROL_AF_MODE_OFF;
+    }
+
+    private boolean hasCapability(int capability) {
+        return contains(characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES), capability);
+    }
+
+    /**
+     * Picks the supported fps range the way the old path does, see
+     * {@link CameraConfigurationManager#findPreviewFpsRange}.
+     */
+    private Range<Integer> findFpsRange(int maxFps) {
+        if (characteristics == null) {
+            return null;
+        }
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null || ranges.length == 0) {
+            return null;
+        }
+        Range<Integer> best = null;
+        Range<Integer> fastest = null;
+        for (Range<Integer> range : ranges) {
+            if (fastest == null || range.getUpper() > fastest.getUpper()
+                    || (range.getUpper().equals(fastest.getUpper()) && range.getLower() < fastest.getLower())) {
+                fastest = range;
+            }
+            if (range.getUpper() < maxFps) {
+                continue;
+            }
+            if (best == null || range.getUpper() < best.getUpper()
+                    || (range.getUpper().equals(best.getUpper()) && range.getLower() < best.getLower())) {
+                best = range;
+            }
+        }
+        return best != null ? best : fastest;
+    }
+
+    /**
+     * Picks the largest YUV size within the bounds whose aspect ratio is closest to the screen's,
+     * among the sizes the preview surface supports too, so what is shown is what is decoded.
+     */
+    private Size findPreviewSize(StreamConfigurationMap map, Point screenResolution) {
+        if (map == null) {
+            return null;
+        }
+        Size[] yuvSizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+        if (yuvSizes == null) {
+            return null;
+        }
+        List<Size> surfaceSizes = Arrays.asList(map.getOutputSizes(SurfaceHolder.class));
+        float screenAspect = (float) Math.max(screenResolution.x, screenResolution.y)
+                / Math.min(screenResolution.x, screenResolution.y);
+        List<Size> candidates = new ArrayList<Size>();
+        float bestDifference = Float.MAX_VALUE;
+        for (Size size : yuvSizes) {
+            if (size.getWidth() > maxPreviewWidth || size.getHeight() > maxPreviewHeight
+                    || !surfaceSizes.contains(size)) {
+                continue;
+            }
+            candidates.add(size);
+            bestDifference = Math.min(bestDifference, aspectDifference(size, screenAspect));
+        }
+        Size best = null;
+        for (Size size : candidates) {
+            if (aspectDifference(size, screenAspect) > bestDifference + ASPECT_TOLERANCE) {
+                continue;
+            }
+            if (best == null || size.getWidth() * size.getHeight() > best.getWidth() * best.getHeight()) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    private static float aspectDifference(Size size, float aspect) {
+        return Math.abs((float) size.getWidth() / size.getHeight() - aspect);
+    }
+
+    private static String findBackCamera(android.hardware.camera2.CameraManager cameraService)
+            throws CameraAccessException {
+        for (String cameraId : cameraService.getCameraIdList()) {
+            Integer facing = cameraService.getCameraCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraMetadata.LENS_FACING_BACK) {
+                return cameraId;
+            }
+        }
+        return null;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        if (values != null) {
+            for (int candidate : values) {
+                if (candidate == value) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Receives the device of one {@link #open(SurfaceHolder, Point)}. Once that open was undone by
+     * {@link #close()}, a device that still arrives is closed right away instead of being kept,
+     * and the camera thread is quit after it.
+     */
+    private final class OpenCallback extends CameraDevice.StateCallback {
+
+        private final HandlerThread cameraThread;
+        /**
+         * True until the camera service answered; guarded by the backend.
+         */
+        private boolean pending = true;
+        private boolean cancelled;
+
+        OpenCallback(HandlerThread cameraThread) {
+            this.cameraThread = cameraThread;
+        }
+
+        /**
+         * Called with the backend lock held.
+         */
+        void cancel() {
+            cancelled = true;
+            if (!pending) {
+                cameraThread.quitSafely();
+            }
+        }
+
+        @Override
+        public void onOpened(CameraDevice camera) {
+            synchronized (Camera2Backend.this) {
+                pending = false;
+                if (cancelled) {
+                    camera.close();
+                    cameraThread.quitSafely();
+                    return;
+                }
+                device = camera;
+                if (previewing) {
+                    createSession(camera);
+                }
+            }
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+            lost(camera);
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+            Log.w(TAG, "Camera error " + error);
+            lost(camera);
+        }
+
+        private void lost(CameraDevice camera) {
+            synchronized (Camera2Backend.this) {
+                pending = false;
+                camera.close();
+                if (cancelled) {
+                    cameraThread.quitSafely();
+                    return;
+                }
+                if (device == camera) {
+                    device = null;
+                }
+                // Also when the device was lost before it opened, with the preview waiting for it.
+                if (previewing) {
+                    previewFailed("Camera lost");
+                }
+            }
+        }
+    }
+
+    /**
+     * An ImageReader that is only closed once the decoders gave back every image taken from it,
+     * since closing it frees the memory the plane buffers of those images point to.
+     */
+    private static final class ImageStream {
+
+        private final ImageReader reader;
+        private int acquiredImages;
+        private boolean closed;
+
+        ImageStream(ImageReader reader) {
+            this.reader = reader;
+        }
+
+        synchronized PreviewFrame acquireLatestFrame() {
+            if (closed) {
+                return null;
+            }
+            Image image;
+            try {
+                image = reader.acquireLatestImage();
+            } catch (IllegalStateException e) {
+                // Every image is out being decoded; the newest one is picked up next time.
+                return null;
+            }
+            if (image == null) {
+                return null;
+            }
+            acquiredImages++;
+            Image.Plane plane = image.getPlanes()[0];
+            return new PreviewFrame(plane.getBuffer(), plane.getRowStride(), image.getWidth(),
+                    image.getHeight(), System.nanoTime(), new StreamImage(this, image));
+        }
+
+        synchronized void release(Image image) {
+            image.close();
+            acquiredImages--;
+            if (closed && acquiredImages == 0) {
+                reader.close();
+            }
+        }
+
+        synchronized void close() {
+            if (!closed) {
+                closed = true;
+                if (acquiredImages == 0) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    private static final class StreamImage {
+
+        private final ImageStream stream;
+        private final Image image;
+
+        StreamImage(ImageStream stream, Image image) {
+            this.stream = stream;
+            this.image = image;
+        }
+
+        void release() {
+            stream.release(image);
+        }
+    }
+
+    private static long clamp(Range<Long> range, long value) {
+        return range != null ? range.clamp(value) : value;
+    }
+
+    private static int clamp(Range<Integer> range, int value) {
+        return range != null ? range.clamp(value) : value;
+    }
+}
@@ -0,0 +1,122 @@
+package com.liangmayong.qrcode.camera;
+
+import android.graphics.Point;
+import android.os.Handler;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+
+/**
+ * A source of preview frames other than the old android.hardware.Camera, which
+ * {@link CameraManager} drives itself. Install one with
+ * {@link CameraManager#setCameraBackend(CameraBackend)}; the camera manager then forwards the
+ * device work here and keeps the framing rect, the frame counts and the decode thread handoff the
+ * same as before.
+ * <p>
+ * Frames are unrotated and rotated 90 degrees clockwise for the portrait viewfinder, like the
+ * frames of the back camera with the old API. Frame requests, takes and releases may come from
+ * any thread; everything else comes from the main thread.
+ */
+public interface CameraBackend {
+
+    /**
+     * Opens the device and picks the preview size. Called on the main thread, so it must not wait
+     * for the device: it may return while the device is still opening, as long as the preview
+     * size is known and a preview started in the meantime begins once the device is open.
+     *
+     * @param holder           the surface the preview is shown on, may be null for a backend
+     *                         without a preview
+     * @param screenResolution size of the scan view, in portrait orientation
+     * @throws IOException if the device cannot be opened
+     */
+    void open(SurfaceHolder holder, Point screenResolution) throws IOException;
+
+    void close();
+
+    /**
+     * @return true from {@link #open(SurfaceHolder, Point)} on, while the device is still opening
+     * too, until it is closed or lost
+     */
+    boolean isOpen();
+
+    /**
+     * @return the size of the unrotated preview frames, or null before the device is open
+     */
+    Point getPreviewSize();
+
+    /**
+     * Starts delivering frames.
+     *
+     * @param bufferCount frames that may be out at the same time: one per decode worker, one
+     *                    waiting to be taken and one spare
+     */
+    void startPreview(int bufferCount);
+
+    void stopPreview();
+
+    boolean isPreviewing();
+
+    /**
+     * Sends the handler the message when the preview stops by itself: the device was lost, or
+     * the capture session could not be set up. Frame requests waiting then are dropped, and no
+     * frames follow until the preview is started again, after reopening if the device was lost.
+     *
+     * @param handler handler, or null to send nothing
+     */
+    void setErrorHandler(Handler handler, int message);
+
+    /**
+     * Sends the handler a message as soon as a frame is waiting, straight away if one already
+     * is, with the frame width and height as arg1 and arg2. A handler that is already waiting
+     * is not queued twice.
+     */
+    void requestFrame(Handler handler, int message);
+
+    /**
+     * Takes the newest frame; frames before it have been recycled.
+     *
+     * @return the frame, or null if another consumer took it first
+     */
+    PreviewFrame takeFrame();
+
+    /**
+     * Recycles a frame from {@link #takeFrame()} once its consumer is done with it.
+     */
+    void releaseFrame(PreviewFrame frame);
+
+    void clearFrameRequests();
+
+    long getDeliveredFrameCount();
+
+    long getUnclaimedFrameCount();
+
+    /**
+     * Focuses, and sends the handler the message with a Boolean flag, true if the lens locked in
+     * focus, once the next focus run is due. A backend that focuses continuously by itself sends
+     * nothing.
+     *
+     * @param handler handler, or null for a single focus run without a message
+     */
+    void requestAutoFocus(Handler handler, int message);
+
+    /**
+     * @see CameraManager#setPreviewFpsCeiling(int)
+     */
+    int setPreviewFpsCeiling(int maxFps);
+
+    /**
+     * @see CameraManager#resetPreviewFpsRange()
+     */
+    void resetPreviewFpsRange();
+
+    /**
+     * @param flashMode one of the android.hardware.Camera.Parameters FLASH_MODE_ constants
+     */
+    void setFlashMode(String flashMode);
+
+    /**
+     * @return the flash mode, as one of the android.hardware.Camera.Parameters FLASH_MODE_
+     * constants
+     */
+    String getFlashMode();
+}
@@ -18,11 +18,14 @@ package com.liangmayong.qrcode.camera;
 
 import android.content.Context;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Build;
 import android.util.Log;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 final class CameraConfigurationManager {
@@ -39,6 +42,9 @@ final class CameraConfigurationManager {
     private Point cameraResolution;
     private int previewFormat;
     private String previewFormatString;
+    private boolean previewSizeCalibration;
+    private List<Point> calibrationSizes;
+    private Rect calibrationFramingRect;
 
     CameraConfigurationManager(Context context) {
         this.context = context;
@@ -71,6 +77,72 @@ final class CameraConfigurationManager {
         }
         cameraResolution = getCameraResolution(parameters, screenResolutionForCamera);
         Log.d(TAG, "Screen resolution for Camera: " + screenResolutionForCamera);
+        if (previewSizeCalibration) {
+            Point calibratedSize = PreviewSizeCalibrator.getCalibratedSize(context,
+                    getSupportedPreviewSizes(parameters));
+            if (calibratedSize != null) {
+                cameraResolution = calibratedSize;
+            }
+        }
+        Log.d(TAG, "Camera resolution: " + cameraResolution);
+    }
+
+    void setPreviewSizeCalibration(boolean previewSizeCalibration) {
+        this.previewSizeCalibration = previewSizeCalibration;
+    }
+
+    /**
+     * Notes what the preview size calibration needs if it is on and this device model has not
+     * been calibrated yet. It runs once the scan session ends, see
+     * {@link #startPreviewSizeCalibration()}, so it does not take CPU from the decode workers.
+     *
+     * @param framingRect the framing rect in screen coordinates
+     */
+    void preparePreviewSizeCalibration(Camera camera, Rect framingRect) {
+        if (!previewSizeCalibration || framingRect == null
+                || PreviewSizeCalibrator.isCalibrated(context)) {
+            return;
+        }
+        List<Point> supportedSizes = getSupportedPreviewSizes(camera.getParameters());
+        if (!supportedSizes.isEmpty()) {
+            calibrationSizes = supportedSizes;
+            calibrationFramingRect = new Rect(framingRect);
+        }
+    }
+
+    /**
+     * Starts the prepared calibration in the background, once the camera is closed. The current
+     * preview size stays until the camera is set up again.
+     */
+    void startPreviewSizeCalibration() {
+        if (calibrationSizes == null) {
+            return;
+        }
+        PreviewSizeCalibrator.calibrateInBackground(context, calibrationSizes,
+                new Point(screenResolution), calibrationFramingRect);
+        calibrationSizes = null;
+        calibrationFramingRect = null;
+    }
+
+    private static List<Point> getSupportedPreviewSizes(Camera.Parameters parameters) {
+        List<Point> sizes = new ArrayList<Point>();
+        List<Camera.Size> supportedSizes = parameters.getSupportedPreviewSizes();
+        if (supportedSizes != null) {
+            for (Camera.Size size : supportedSizes) {
+                sizes.add(new Point(size.width, size.height));
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Takes the preview size from a {@link CameraBackend} instead of the old camera's parameters.
+     */
+    void initFromPreviewSize(Point previewSize) {
+        screenResolution = new Point(CameraManager.get().getScreenWidth(),
+                CameraManager.get().getScreenHeight());
+        cameraResolution = new Point(previewSize);
+        Log.d(TAG, "Screen resolution: " + screenResolution);
         Log.d(TAG, "Camera resolution: " + cameraResolution);
     }
 
@@ -92,6 +164,43 @@ final class CameraConfigurationManager {
         camera.setParameters(parameters);
     }
 
+    /**
+     * Picks the supported preview fps range with the lowest maximum that still reaches the given
+     * frame rate, and the lowest minimum of those, so auto exposure stays free to slow down in
+     * dim light. Falls back to the fastest range if none reaches it, again the one with the
+     * lowest minimum if several are as fast.
+     *
+     * @return the range, in frames per 1000 seconds as the camera reports it, or null if the
+     * camera reports none
+     */
+    static int[] findPreviewFpsRange(Camera.Parameters parameters, int maxFps) {
+        List<int[]> ranges = parameters.getSupportedPreviewFpsRange();
+        if (ranges == null || ranges.isEmpty()) {
+            return null;
+        }
+        int wanted = maxFps * 1000;
+        int[] best = null;
+        int[] fastest = null;
+        for (int[] range : ranges) {
+            int min = range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            int max = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+            if (fastest == null || max > fastest[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]
+                    || (max == fastest[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]
+                    && min < fastest[Camera.Parameters.PREVIEW_FPS_MIN_INDEX])) {
+                fastest = range;
+            }
+            if (max < wanted) {
+                continue;
+            }
+            if (best == null || max < best[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]
+                    || (max == best[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]
+                    && min < best[Camera.Parameters.PREVIEW_FPS_MIN_INDEX])) {
+                best = range;
+            }
+        }
+        return best != null ? best : fastest;
+    }
+
     Point getCameraResolution() {
         return cameraResolution;
     }
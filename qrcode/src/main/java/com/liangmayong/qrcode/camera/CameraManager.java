@@ -69,17 +69,32 @@ public final class CameraManager {
         this.MAX_FRAME_HEIGHT = maxH;
         this.framingRect = null;
         this.framingRectInPreview = null;
+        this.framingRectInPreviewFrame = null;
     }
 
     private final Context context;
     private final CameraConfigurationManager configManager;
-    private Camera camera;
+    private volatile Camera camera;
+    private volatile CameraBackend backend;
     private Rect framingRect;
     private Rect framingRectInPreview;
+    private Rect framingRectInPreviewFrame;
     private boolean initialized;
-    private boolean previewing;
+    private volatile boolean previewing;
+    private int previewFpsCeiling;
+    private int[] defaultPreviewFpsRange;
     private final boolean useOneShotPreviewCallback;
+    private boolean useBufferedPreviewCallback = true;
+    private int previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
     private boolean withoutStatusBar = true;
+    private Handler cameraErrorHandler;
+    private int cameraErrorMessage;
+
+    /**
+     * Preview buffers handed to the camera in buffered mode: one being filled
+     * by the camera, one being decoded and one spare.
+     */
+    private static final int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
 
     /**
      * setWithoutStatusBar
@@ -129,6 +144,73 @@ public final class CameraManager {
         return camera;
     }
 
+    /**
+     * setCameraBackend
+     * <p>
+     * Takes preview frames from another backend than the old camera API, e.g.
+     * a {@link Camera2Backend} where {@link Camera2Backend#isSupported} holds.
+     * Only while the driver is closed; takes effect when it next opens.
+     *
+     * @param backend backend, null for the old camera API default = null
+     */
+    public void setCameraBackend(CameraBackend backend) {
+        if (isDriverOpen()) {
+            throw new IllegalStateException("The camera driver is open.");
+        }
+        this.backend = backend;
+        if (backend != null) {
+            backend.setErrorHandler(cameraErrorHandler, cameraErrorMessage);
+        }
+        initialized = false;
+        framingRect = null;
+        framingRectInPreview = null;
+        framingRectInPreviewFrame = null;
+    }
+
+    public CameraBackend getCameraBackend() {
+        return backend;
+    }
+
+    /**
+     * setCameraErrorHandler
+     * <p>
+     * Sends the handler the message when a {@link CameraBackend} stops the preview by itself,
+     * see {@link CameraBackend#setErrorHandler(Handler, int)}. The old camera API reports nothing.
+     *
+     * @param handler handler, null to send nothing default = null
+     * @param message message
+     */
+    public void setCameraErrorHandler(Handler handler, int message) {
+        this.cameraErrorHandler = handler;
+        this.cameraErrorMessage = message;
+        CameraBackend backend = this.backend;
+        if (backend != null) {
+            backend.setErrorHandler(handler, message);
+        }
+    }
+
+    /**
+     * setPreviewSizeCalibration
+     * <p>
+     * Picks the preview size by measuring, once per device model, how fast a synthetic QR code
+     * decodes at each supported size where its modules are still large enough to read. The
+     * measurement runs in the background after the first scan session closes the camera, and is
+     * given up if the camera opens again before it is done; the result is kept in the shared
+     * preferences and the camera uses it from the next start of the app on.
+     * Applies to the old camera API only, a {@link CameraBackend} picks its own size.
+     *
+     * @param previewSizeCalibration previewSizeCalibration default = false
+     */
+    public void setPreviewSizeCalibration(boolean previewSizeCalibration) {
+        configManager.setPreviewSizeCalibration(previewSizeCalibration);
+        initialized = false;
+    }
+
+    private boolean isDriverOpen() {
+        CameraBackend backend = this.backend;
+        return camera != null || (backend != null && backend.isOpen());
+    }
+
     private CameraManager(Context context) {
 
         this.context = context;
@@ -184,6 +266,10 @@ public final class CameraManager {
         if (isEnableFlash()) {
             return;
         }
+        if (backend != null) {
+            backend.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
+            return;
+        }
         try {
             if (context.getPackageManager().hasSystemFeature(
                     PackageManager.FEATURE_CAMERA_FLASH)) {
@@ -202,6 +288,9 @@ public final class CameraManager {
      * @return bool
      */
     public boolean isEnableFlash() {
+        if (backend != null) {
+            return Camera.Parameters.FLASH_MODE_TORCH.equals(backend.getFlashMode());
+        }
         try {
             if (context.getPackageManager().hasSystemFeature(
                     PackageManager.FEATURE_CAMERA_FLASH)) {
@@ -224,6 +313,10 @@ public final class CameraManager {
         if (isAutoFlash()) {
             return;
         }
+        if (backend != null) {
+            backend.setFlashMode(Camera.Parameters.FLASH_MODE_AUTO);
+            return;
+        }
         try {
             if (context.getPackageManager().hasSystemFeature(
                     PackageManager.FEATURE_CAMERA_FLASH)) {
@@ -243,6 +336,9 @@ public final class CameraManager {
      * @return flash mode
      */
     public String getFlashMode() {
+        if (backend != null) {
+            return backend.getFlashMode();
+        }
         try {
             if (context.getPackageManager().hasSystemFeature(
                     PackageManager.FEATURE_CAMERA_FLASH)) {
@@ -260,6 +356,9 @@ public final class CameraManager {
      * @return bool
      */
     public boolean isAutoFlash() {
+        if (backend != null) {
+            return Camera.Parameters.FLASH_MODE_AUTO.equals(backend.getFlashMode());
+        }
         try {
             if (context.getPackageManager().hasSystemFeature(
                     PackageManager.FEATURE_CAMERA_FLASH)) {
@@ -282,6 +381,10 @@ public final class CameraManager {
         if (isDisableFlash()) {
             return;
         }
+        if (backend != null) {
+            backend.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
+            return;
+        }
         try {
             if (context.getPackageManager().hasSystemFeature(
                     PackageManager.FEATURE_CAMERA_FLASH)) {
@@ -299,6 +402,9 @@ public final class CameraManager {
      * @return bool
      */
     public boolean isDisableFlash() {
+        if (backend != null) {
+            return Camera.Parameters.FLASH_MODE_OFF.equals(backend.getFlashMode());
+        }
         try {
             if (context.getPackageManager().hasSystemFeature(
                     PackageManager.FEATURE_CAMERA_FLASH)) {
@@ -322,36 +428,179 @@ public final class CameraManager {
      * @throws IOException Indicates the camera driver failed to open.
      */
     public void openDriver(SurfaceHolder holder) throws IOException {
+        // A calibration left over from the last session would compete with the decode workers.
+        PreviewSizeCalibrator.cancel();
+        CameraBackend backend = this.backend;
+        if (backend != null) {
+            if (!backend.isOpen()) {
+                backend.open(holder, new Point(getScreenWidth(), getScreenHeight()));
+                // The preview size may differ from one opening to the next.
+                configManager.initFromPreviewSize(backend.getPreviewSize());
+                framingRect = null;
+                framingRectInPreview = null;
+                framingRectInPreviewFrame = null;
+            }
+            return;
+        }
         if (camera == null) {
             camera = Camera.open();
             if (camera == null) {
                 throw new IOException();
             }
             camera.setPreviewDisplay(holder);
+            previewFpsCeiling = 0;
+            defaultPreviewFpsRange = null;
 
             if (!initialized) {
                 initialized = true;
                 configManager.initFromCameraParameters(camera);
+                framingRect = null;
+                framingRectInPreview = null;
+                framingRectInPreviewFrame = null;
+                configManager.preparePreviewSizeCalibration(camera, getFramingRect());
             }
             configManager.setDesiredCameraParameters(camera);
         }
     }
 
+    /**
+     * setPreviewFpsCeiling
+     * <p>
+     * Caps the preview frame rate, choosing the supported fps range with the
+     * lowest maximum that still reaches the given rate, and of those the one
+     * with the lowest minimum, so auto exposure can still slow down in dim
+     * light. A lower rate saves camera and image processor power when the
+     * decoder cannot use more frames anyway. Does nothing on cameras with a
+     * single fixed range. {@link #resetPreviewFpsRange()} undoes it.
+     *
+     * @param maxFps maxFps, Integer.MAX_VALUE for the fastest range
+     * @return the maximum fps of the range now in use, 0 if unknown
+     */
+    public int setPreviewFpsCeiling(int maxFps) {
+        if (backend != null) {
+            return backend.isOpen() ? backend.setPreviewFpsCeiling(maxFps) : 0;
+        }
+        if (camera == null) {
+            return 0;
+        }
+        try {
+            Camera.Parameters p = camera.getParameters();
+            int[] range = CameraConfigurationManager.findPreviewFpsRange(p,
+                    Math.min(maxFps, Integer.MAX_VALUE / 1000));
+            if (range == null) {
+                return 0;
+            }
+            int ceiling = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000;
+            if (ceiling != previewFpsCeiling) {
+                if (defaultPreviewFpsRange == null) {
+                    defaultPreviewFpsRange = new int[2];
+                    p.getPreviewFpsRange(defaultPreviewFpsRange);
+                }
+                p.setPreviewFpsRange(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                        range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+                camera.setParameters(p);
+                previewFpsCeiling = ceiling;
+            }
+            return ceiling;
+        } catch (Exception e) {
+            // Some drivers refuse a new range while the preview runs.
+            return 0;
+        }
+    }
+
+    /**
+     * resetPreviewFpsRange
+     * <p>
+     * Puts back the fps range the camera had before the first
+     * {@link #setPreviewFpsCeiling(int)} call, if there was one. Does nothing
+     * otherwise, so a camera nobody capped keeps its own default.
+     */
+    public void resetPreviewFpsRange() {
+        if (backend != null) {
+            if (backend.isOpen()) {
+                backend.resetPreviewFpsRange();
+            }
+            return;
+        }
+        if (camera == null || defaultPreviewFpsRange == null || previewFpsCeiling == 0) {
+            return;
+        }
+        try {
+            Camera.Parameters p = camera.getParameters();
+            p.setPreviewFpsRange(defaultPreviewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                    defaultPreviewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+            camera.setParameters(p);
+            previewFpsCeiling = 0;
+        } catch (Exception e) {
+            // Some drivers refuse a new range while the preview runs.
+        }
+    }
+
     /**
      * Closes the camera driver if still in use.
      */
     public void closeDriver() {
+        if (backend != null) {
+            backend.close();
+        }
         if (camera != null) {
             camera.release();
             camera = null;
+            // The decode workers have quit, the calibration has the CPU to itself.
+            configManager.startPreviewSizeCalibration();
         }
     }
 
+    /**
+     * setBufferedPreview
+     * <p>
+     * In buffered mode the camera fills a small ring of pre-allocated buffers
+     * (setPreviewCallbackWithBuffer) instead of allocating a new byte[] for
+     * every frame, and the callback stays registered between frames. Frames
+     * must then be handed back with {@link #releasePreviewFrame(PreviewFrame)}.
+     * Takes effect the next time the preview starts.
+     *
+     * @param bufferedPreview bufferedPreview default = true
+     */
+    public void setBufferedPreview(boolean bufferedPreview) {
+        this.useBufferedPreviewCallback = bufferedPreview;
+    }
+
+    /**
+     * isBufferedPreview
+     *
+     * @return bool
+     */
+    public boolean isBufferedPreview() {
+        return useBufferedPreviewCallback;
+    }
+
+    /**
+     * setFrameConsumerCount
+     * <p>
+     * Sizes the buffered preview ring for the given number of consumers that
+     * may each hold a frame at the same time, plus one buffer being filled by
+     * the camera and one spare. Takes effect the next time the preview starts.
+     *
+     * @param consumerCount consumerCount
+     */
+    public void setFrameConsumerCount(int consumerCount) {
+        this.previewBufferCount = Math.max(DEFAULT_PREVIEW_BUFFER_COUNT, consumerCount + 2);
+    }
+
     /**
      * Asks the camera hardware to begin drawing preview frames to the screen.
      */
     public void startPreview() {
+        if (backend != null) {
+            backend.startPreview(previewBufferCount);
+            return;
+        }
         if (camera != null && !previewing) {
+            previewCallback.resetFrameCounts();
+            if (useBufferedPreviewCallback) {
+                previewCallback.startBufferedPreview(camera, previewBufferCount);
+            }
             camera.startPreview();
             previewing = true;
         }
@@ -361,28 +610,49 @@ public final class CameraManager {
      * Tells the camera to stop drawing preview frames.
      */
     public void stopPreview() {
+        if (backend != null) {
+            backend.stopPreview();
+            return;
+        }
         if (camera != null && previewing) {
-            if (!useOneShotPreviewCallback) {
+            if (previewCallback.isBufferedPreview()) {
+                previewCallback.stopBufferedPreview(camera);
+            } else if (!useOneShotPreviewCallback) {
                 camera.setPreviewCallback(null);
             }
             camera.stopPreview();
-            previewCallback.setHandler(null, 0);
+            previewCallback.clearHandlers();
+            previewCallback.clearFrame();
             autoFocusCallback.setHandler(null, 0);
             previewing = false;
         }
     }
 
     /**
-     * A single preview frame will be returned to the handler supplied. The data
-     * will arrive as byte[] in the message.obj field, with width and height
-     * encoded as message.arg1 and message.arg2, respectively.
+     * The handler supplied is sent a message once a preview frame is ready,
+     * straight away if one is already waiting. The width and height of the
+     * frame are encoded as message.arg1 and message.arg2; the frame itself
+     * is taken with {@link #takePreviewFrame()}. Requests from several
+     * handlers are served in order, one frame each.
      *
      * @param handler The handler to send the message to.
      * @param message The what field of the message to be sent.
      */
     public void requestPreviewFrame(Handler handler, int message) {
+        if (backend != null) {
+            backend.requestFrame(handler, message);
+            return;
+        }
         if (camera != null && previewing) {
-            previewCallback.setHandler(handler, message);
+            boolean waiting = previewCallback.hasHandlers();
+            if (previewCallback.addHandler(handler, message)) {
+                return;
+            }
+            if (previewCallback.isBufferedPreview() || waiting) {
+                // The callback is still registered, the next frame goes to the
+                // oldest waiting handler.
+                return;
+            }
             if (useOneShotPreviewCallback) {
                 camera.setOneShotPreviewCallback(previewCallback);
             } else {
@@ -391,7 +661,125 @@ public final class CameraManager {
         }
     }
 
+    /**
+     * requestLatestPreviewFrame
+     * <p>
+     * Same as {@link #requestPreviewFrame}, but callable from any thread, so
+     * a decode worker can ask for its next frame itself. Only works while the
+     * preview runs in buffered mode, where the camera does not need to be
+     * touched to get another frame.
+     *
+     * @param handler The handler to send the message to.
+     * @param message The what field of the message to be sent.
+     * @return false if the request must go through {@link #requestPreviewFrame}
+     * on the camera's thread instead
+     */
+    public boolean requestLatestPreviewFrame(Handler handler, int message) {
+        if (backend != null) {
+            backend.requestFrame(handler, message);
+            return true;
+        }
+        if (!previewCallback.isBufferedPreview()) {
+            return false;
+        }
+        if (camera != null && previewing) {
+            previewCallback.addHandler(handler, message);
+        }
+        return true;
+    }
+
+    /**
+     * takePreviewFrame
+     * <p>
+     * Takes the newest preview frame. Frames that arrived before it have
+     * already been recycled. The frame must be handed back with
+     * {@link #releasePreviewFrame(PreviewFrame)}. May be called from any
+     * thread.
+     *
+     * @return the frame, or null if another consumer took it first
+     */
+    public PreviewFrame takePreviewFrame() {
+        CameraBackend backend = this.backend;
+        if (backend != null) {
+            return backend.takeFrame();
+        }
+        byte[] data = previewCallback.takeFrame();
+        if (data == null) {
+            return null;
+        }
+        Point cameraResolution = configManager.getCameraResolution();
+        return new PreviewFrame(data, cameraResolution.x, cameraResolution.y, System.nanoTime());
+    }
+
+    /**
+     * getDeliveredFrameCount
+     *
+     * @return preview frames the camera delivered since the preview was last started
+     */
+    public long getDeliveredFrameCount() {
+        CameraBackend backend = this.backend;
+        if (backend != null) {
+            return backend.getDeliveredFrameCount();
+        }
+        return previewCallback.getDeliveredFrameCount();
+    }
+
+    /**
+     * getUnclaimedFrameCount
+     *
+     * @return delivered frames that were replaced by a newer one before any
+     * consumer took them
+     */
+    public long getUnclaimedFrameCount() {
+        CameraBackend backend = this.backend;
+        if (backend != null) {
+            return backend.getUnclaimedFrameCount();
+        }
+        return previewCallback.getUnclaimedFrameCount();
+    }
+
+    /**
+     * Drops every pending {@link #requestPreviewFrame} request.
+     */
+    public void clearPreviewFrameRequests() {
+        if (backend != null) {
+            backend.clearFrameRequests();
+            return;
+        }
+        previewCallback.clearHandlers();
+    }
+
+    /**
+     * Returns a frame from {@link #takePreviewFrame()} to the camera once its
+     * consumer is done reading it. With the old camera API this only matters
+     * in buffered mode. May be called from any thread.
+     *
+     * @param frame The frame.
+     */
+    public void releasePreviewFrame(PreviewFrame frame) {
+        CameraBackend backend = this.backend;
+        if (backend != null) {
+            backend.releaseFrame(frame);
+            return;
+        }
+        Camera camera = this.camera;
+        if (camera != null) {
+            try {
+                previewCallback.releaseBuffer(camera, frame.getData());
+            } catch (RuntimeException e) {
+                // The camera was released while the frame was being decoded.
+            }
+        }
+    }
+
     public void requestAutoFocus() {
+        if (backend != null) {
+            backend.requestAutoFocus(null, 0);
+            return;
+        }
+        if (camera == null) {
+            return;
+        }
         camera.autoFocus(new Camera.AutoFocusCallback() {
             @Override
             public void onAutoFocus(boolean success, Camera camera) {
@@ -409,6 +797,12 @@ public final class CameraManager {
      * @param message The message to deliver.
      */
     public void requestAutoFocus(Handler handler, int message) {
+        if (backend != null) {
+            if (backend.isPreviewing()) {
+                backend.requestAutoFocus(handler, message);
+            }
+            return;
+        }
         if (camera != null && previewing) {
             autoFocusCallback.setHandler(handler, message);
             // Log.d(TAG, "Requesting auto-focus callback");
@@ -427,7 +821,7 @@ public final class CameraManager {
     public Rect getFramingRect() {
         Point screenResolution = configManager.getScreenResolution();
         if (framingRect == null) {
-            if (camera == null) {
+            if (!isDriverOpen()) {
                 return null;
             }
             int width = screenResolution.x;
@@ -469,6 +863,22 @@ public final class CameraManager {
         return framingRectInPreview;
     }
 
+    /**
+     * Like {@link #getFramingRectInPreview} but in the coordinates of the
+     * unrotated frame the camera delivers, for code that reads the raw Y plane.
+     */
+    public Rect getFramingRectInPreviewFrame() {
+        if (framingRectInPreviewFrame == null) {
+            Rect rect = getFramingRectInPreview();
+            int frameHeight = configManager.getCameraResolution().y;
+            // Undo the 90 degree clockwise rotation: rotated columns are frame rows counted
+            // from the bottom, rotated rows are frame columns.
+            framingRectInPreviewFrame = new Rect(rect.top, frameHeight - rect.right,
+                    rect.bottom, frameHeight - rect.left);
+        }
+        return framingRectInPreviewFrame;
+    }
+
     /**
      * Converts the result points from still resolution coordinates to screen
      * coordinates.
@@ -500,6 +910,71 @@ public final class CameraManager {
     public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data,
                                                          int width, int height) {
         Rect rect = getFramingRectInPreview();
+        checkPreviewFormat();
+        return new PlanarYUVLuminanceSource(data, width, height, rect.left,
+                rect.top, rect.width(), rect.height());
+    }
+
+    /**
+     * Like {@link #buildLuminanceSource} but for an unrotated preview frame
+     * straight from the camera. The source serves the framing rect of the
+     * frame rotated 90 degrees clockwise, without transposing the frame.
+     *
+     * @param data   A preview frame, as delivered by the camera.
+     * @param width  The width of the unrotated frame.
+     * @param height The height of the unrotated frame.
+     * @param matrix Reusable buffer for the cropped luminance matrix, or null.
+     * @return A RotatedPlanarYUVLuminanceSource instance.
+     */
+    public RotatedPlanarYUVLuminanceSource buildRotatedLuminanceSource(byte[] data,
+                                                                       int width, int height,
+                                                                       byte[] matrix) {
+        return buildRotatedLuminanceSource(data, width, height, getFramingRectInPreview(), matrix);
+    }
+
+    /**
+     * Like {@link #buildRotatedLuminanceSource(byte[], int, int, byte[])} but
+     * for any rectangle of the rotated preview frame, e.g. a part of the
+     * framing rect.
+     *
+     * @param data   A preview frame, as delivered by the camera.
+     * @param width  The width of the unrotated frame.
+     * @param height The height of the unrotated frame.
+     * @param rect   The rectangle to serve, in rotated preview coordinates.
+     * @param matrix Reusable buffer for the cropped luminance matrix, or null.
+     * @return A RotatedPlanarYUVLuminanceSource instance.
+     */
+    public RotatedPlanarYUVLuminanceSource buildRotatedLuminanceSource(byte[] data,
+                                                                       int width, int height,
+                                                                       Rect rect, byte[] matrix) {
+        checkPreviewFormat();
+        return new RotatedPlanarYUVLuminanceSource(data, width, height, rect.left,
+                rect.top, rect.width(), rect.height(), matrix);
+    }
+
+    /**
+     * Like {@link #buildRotatedLuminanceSource(byte[], int, int, Rect, byte[])}
+     * for a frame from {@link #takePreviewFrame()}, array or buffer backed.
+     *
+     * @param frame  A preview frame.
+     * @param rect   The rectangle to serve, in rotated preview coordinates.
+     * @param matrix Reusable buffer for the cropped luminance matrix, or null.
+     * @return A RotatedPlanarYUVLuminanceSource instance.
+     */
+    public RotatedPlanarYUVLuminanceSource buildRotatedLuminanceSource(PreviewFrame frame,
+                                                                       Rect rect, byte[] matrix) {
+        if (backend == null) {
+            // Backends always deliver a Y plane; the old camera's format needs checking.
+            checkPreviewFormat();
+        }
+        return frame.buildRotatedLuminanceSource(rect, matrix);
+    }
+
+    /**
+     * Makes sure the preview buffers start with a planar Y channel, which is
+     * the only part the luminance sources read.
+     */
+    private void checkPreviewFormat() {
         int previewFormat = configManager.getPreviewFormat();
         String previewFormatString = configManager.getPreviewFormatString();
         switch (previewFormat) {
@@ -511,16 +986,14 @@ public final class CameraManager {
                 // we only care
                 // about the Y channel, so allow it.
             case PixelFormat.YCbCr_422_SP:
-                return new PlanarYUVLuminanceSource(data, width, height, rect.left,
-                        rect.top, rect.width(), rect.height());
+                return;
             default:
                 // The Samsung Moment incorrectly uses this variant instead of the
                 // 'sp' version.
                 // Fortunately, it too has all the Y data up front, so we can read
                 // it.
                 if ("yuv420p".equals(previewFormatString)) {
-                    return new PlanarYUVLuminanceSource(data, width, height,
-                            rect.left, rect.top, rect.width(), rect.height());
+                    return;
                 }
         }
         throw new IllegalArgumentException("Unsupported picture format: "
@@ -531,4 +1004,14 @@ public final class CameraManager {
         return context;
     }
 
+    /**
+     * The preview size the camera was configured with, in the camera's native
+     * (unrotated) orientation.
+     *
+     * @return camera resolution, or null before the driver has been opened
+     */
+    public Point getCameraResolution() {
+        return configManager.getCameraResolution();
+    }
+
 }
@@ -0,0 +1,120 @@
+package com.liangmayong.qrcode.camera;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * A LuminanceSource that shrinks another source by an integer factor, averaging each factor x
+ * factor block of pixels into one. Large codes close to the camera keep more than enough pixels
+ * per module at half or quarter resolution, and the binarizer and detector get four or sixteen
+ * times less work.
+ * <p>
+ * The downsampled image is computed once, when the source is created, into a buffer supplied by
+ * the caller, e.g. from a {@link FrameBufferPool}.
+ */
+public final class DownsampledLuminanceSource extends LuminanceSource {
+
+    private final byte[] pixels;
+    private final int scale;
+
+    /**
+     * @param source the full resolution source
+     * @param scale  the downsampling factor, at least 1
+     * @param buffer reusable buffer of at least {@link #getScaledSize} bytes, or null to allocate one
+     */
+    public DownsampledLuminanceSource(LuminanceSource source, int scale, byte[] buffer) {
+        super(source.getWidth() / checkScale(scale), source.getHeight() / scale);
+        int width = getWidth();
+        int height = getHeight();
+        if (buffer == null) {
+            buffer = new byte[width * height];
+        } else if (buffer.length < width * height) {
+            throw new IllegalArgumentException("Buffer is smaller than the downsampled image.");
+        }
+        this.pixels = buffer;
+        this.scale = scale;
+        downsample(source.getMatrix(), source.getWidth(), buffer, width, height, scale);
+    }
+
+    /**
+     * Runs inside the super constructor call, before anything divides by the scale.
+     */
+    private static int checkScale(int scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Scale must be at least 1: " + scale);
+        }
+        return scale;
+    }
+
+    /**
+     * @return the number of bytes the downsampled image of a source of the given size needs
+     */
+    public static int getScaledSize(int width, int height, int scale) {
+        return (width / scale) * (height / scale);
+    }
+
+    private static void downsample(byte[] input, int inputWidth, byte[] output, int width,
+                                   int height, int scale) {
+        int area = scale * scale;
+        if (scale == 2) {
+            // The common case, without the inner block loops.
+            for (int y = 0; y < height; y++) {
+                int inputOffset = 2 * y * inputWidth;
+                int outputOffset = y * width;
+                for (int x = 0; x < width; x++) {
+                    int i = inputOffset + 2 * x;
+                    int sum = (input[i] & 0xff) + (input[i + 1] & 0xff)
+                            + (input[i + inputWidth] & 0xff) + (input[i + inputWidth + 1] & 0xff);
+                    output[outputOffset + x] = (byte) (sum >> 2);
+                }
+            }
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            int outputOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                int rowOffset = y * scale * inputWidth + x * scale;
+                for (int dy = 0; dy < scale; dy++) {
+                    for (int dx = 0; dx < scale; dx++) {
+                        sum += input[rowOffset + dx] & 0xff;
+                    }
+                    rowOffset += inputWidth;
+                }
+                output[outputOffset + x] = (byte) (sum / area);
+            }
+        }
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight()) {
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        }
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        System.arraycopy(pixels, y * width, row, 0, width);
+        return row;
+    }
+
+    /**
+     * @return the downsampled image; the array may be longer than width * height
+     */
+    @Override
+    public byte[] getMatrix() {
+        return pixels;
+    }
+
+    @Override
+    public LuminanceSource invert() {
+        return new InvertingLuminanceSource(this, null);
+    }
+
+    /**
+     * @return how many source pixels one pixel of this source spans in each direction
+     */
+    public int getScale() {
+        return scale;
+    }
+}
@@ -0,0 +1,72 @@
+package com.liangmayong.qrcode.camera;
+
+/**
+ * A small pool of reusable byte buffers for the per-frame work of one decode thread. The pool is
+ * primed once from the camera resolution, so the steady-state decode loop hands the same arrays
+ * around instead of allocating a new one for every preview frame.
+ * <p>
+ * Instances are not thread safe: each decode thread owns its own pool.
+ */
+public final class FrameBufferPool {
+
+    private final byte[][] buffers;
+    private int count;
+
+    public FrameBufferPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Pool capacity must be positive: " + capacity);
+        }
+        this.buffers = new byte[capacity][];
+        this.count = 0;
+    }
+
+    /**
+     * Pre-allocates every free slot of the pool with buffers of the given size.
+     *
+     * @param size buffer size in bytes
+     */
+    public void prime(int size) {
+        while (count < buffers.length) {
+            buffers[count++] = new byte[size];
+        }
+    }
+
+    /**
+     * Takes a buffer of at least {@code size} bytes from the pool. Buffers that are too small,
+     * for instance after the preview size changed, are dropped and replaced.
+     *
+     * @param size minimum buffer size in bytes
+     * @return a buffer whose contents are undefined
+     */
+    public byte[] acquire(int size) {
+        while (count > 0) {
+            byte[] buffer = buffers[--count];
+            buffers[count] = null;
+            if (buffer.length >= size) {
+                return buffer;
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Returns a buffer to the pool. If the pool is already full the buffer is left to the
+     * garbage collector.
+     *
+     * @param buffer buffer previously returned by {@link #acquire(int)}
+     */
+    public void release(byte[] buffer) {
+        if (buffer != null && count < buffers.length) {
+            buffers[count++] = buffer;
+        }
+    }
+
+    /**
+     * Drops every pooled buffer.
+     */
+    public void clear() {
+        while (count > 0) {
+            buffers[--count] = null;
+        }
+    }
+}
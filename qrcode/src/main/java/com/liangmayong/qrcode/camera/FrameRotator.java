@@ -0,0 +1,237 @@
+package com.liangmayong.qrcode.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rotates the Y plane of a camera frame, or a crop of it, by a multiple of 90 degrees clockwise.
+ * <p>
+ * A quarter turn reads the source column by column, so a naive loop writes (or reads) with a
+ * stride of a whole frame row and touches a new cache line for every byte. The 90 and 270 degree
+ * kernels therefore work in square tiles that are small enough for both the source and the
+ * destination lines of a tile to stay in the L1 cache.
+ */
+public final class FrameRotator {
+
+    /**
+     * Tile edge in pixels. 32 x 32 tiles touch 32 source and 32 destination cache lines, which
+     * fits comfortably in the 16-32 KB L1 data caches of phone CPUs.
+     */
+    private static final int TILE_SIZE = 32;
+
+    private FrameRotator() {
+    }
+
+    /**
+     * Width of a frame of the given size after rotation.
+     */
+    public static int getRotatedWidth(int width, int height, int rotation) {
+        return isQuarterTurn(rotation) ? height : width;
+    }
+
+    /**
+     * Height of a frame of the given size after rotation.
+     */
+    public static int getRotatedHeight(int width, int height, int rotation) {
+        return isQuarterTurn(rotation) ? width : height;
+    }
+
+    /**
+     * Rotates a whole Y plane.
+     *
+     * @param src       the unrotated frame, Y plane first
+     * @param srcWidth  width of the unrotated frame
+     * @param srcHeight height of the unrotated frame
+     * @param rotation  clockwise rotation in degrees, one of 0, 90, 180 or 270
+     * @param dst       receives the rotated plane, at least srcWidth * srcHeight bytes
+     */
+    public static void rotate(byte[] src, int srcWidth, int srcHeight, int rotation, byte[] dst) {
+        rotateCrop(src, srcWidth, srcHeight, rotation, 0, 0,
+                getRotatedWidth(srcWidth, srcHeight, rotation),
+                getRotatedHeight(srcWidth, srcHeight, rotation), dst);
+    }
+
+    /**
+     * Rotates a rectangle of a Y plane. The rectangle is given in rotated coordinates and the
+     * result is written to {@code dst} as a tightly packed width x height matrix.
+     *
+     * @param src       the unrotated frame, Y plane first
+     * @param srcWidth  width of the unrotated frame
+     * @param srcHeight height of the unrotated frame
+     * @param rotation  clockwise rotation in degrees, one of 0, 90, 180 or 270
+     * @param left      left of the crop in rotated coordinates
+     * @param top       top of the crop in rotated coordinates
+     * @param width     width of the crop
+     * @param height    height of the crop
+     * @param dst       receives the rotated crop, at least width * height bytes
+     */
+    public static void rotateCrop(byte[] src, int srcWidth, int srcHeight, int rotation,
+                                  int left, int top, int width, int height, byte[] dst) {
+        int rotatedWidth = getRotatedWidth(srcWidth, srcHeight, rotation);
+        int rotatedHeight = getRotatedHeight(srcWidth, srcHeight, rotation);
+        if (left < 0 || top < 0 || left + width > rotatedWidth || top + height > rotatedHeight) {
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        }
+        if (dst.length < width * height) {
+            throw new IllegalArgumentException("Destination is smaller than the crop rectangle.");
+        }
+        switch (normalize(rotation)) {
+            case 0:
+                copy(src, srcWidth, left, top, width, height, dst);
+                break;
+            case 90:
+                rotate90(src, srcWidth, srcHeight, left, top, width, height, dst);
+                break;
+            case 180:
+                rotate180(src, srcWidth, srcHeight, left, top, width, height, dst);
+                break;
+            default:
+                rotate270(src, srcWidth, left, top, width, height, dst);
+                break;
+        }
+    }
+
+    /**
+     * Like {@link #rotateCrop(byte[], int, int, int, int, int, int, int, byte[])} but reads the
+     * Y plane from a ByteBuffer whose rows may be padded, e.g. plane 0 of a Camera2 image. The
+     * plane is read with absolute gets, so it is neither copied nor moved.
+     *
+     * @param rowStride distance in bytes between the starts of two rows of the plane
+     */
+    public static void rotateCrop(ByteBuffer src, int rowStride, int srcWidth, int srcHeight,
+                                  int rotation, int left, int top, int width, int height, byte[] dst) {
+        int rotatedWidth = getRotatedWidth(srcWidth, srcHeight, rotation);
+        int rotatedHeight = getRotatedHeight(srcWidth, srcHeight, rotation);
+        if (left < 0 || top < 0 || left + width > rotatedWidth || top + height > rotatedHeight) {
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        }
+        if (dst.length < width * height) {
+            throw new IllegalArgumentException("Destination is smaller than the crop rectangle.");
+        }
+        switch (normalize(rotation)) {
+            case 0: {
+                ByteBuffer rows = src.duplicate();
+                for (int y = 0; y < height; y++) {
+                    int inputOffset = (top + y) * rowStride + left;
+                    rows.limit(inputOffset + width);
+                    rows.position(inputOffset);
+                    rows.get(dst, y * width, width);
+                }
+                break;
+            }
+            case 90:
+                rotate90(src, rowStride, srcHeight, left, top, width, height, dst);
+                break;
+            case 180:
+                for (int y = 0; y < height; y++) {
+                    int inputOffset = (srcHeight - 1 - top - y) * rowStride + srcWidth - 1 - left;
+                    int outputOffset = y * width;
+                    for (int x = 0; x < width; x++) {
+                        dst[outputOffset++] = src.get(inputOffset--);
+                    }
+                }
+                break;
+            default:
+                // Rotated (x, y) comes from (srcWidth - 1 - y, x), one source row per column.
+                for (int x = 0; x < width; x++) {
+                    int inputOffset = (left + x) * rowStride + srcWidth - 1 - top;
+                    int outputOffset = x;
+                    for (int y = 0; y < height; y++) {
+                        dst[outputOffset] = src.get(inputOffset--);
+                        outputOffset += width;
+                    }
+                }
+                break;
+        }
+    }
+
+    private static void rotate90(ByteBuffer src, int rowStride, int srcHeight, int left, int top,
+                                 int width, int height, byte[] dst) {
+        // Same tiling as for arrays: the source rows of a tile stay in the cache.
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            int tileBottom = Math.min(tileY + TILE_SIZE, height);
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                int tileRight = Math.min(tileX + TILE_SIZE, width);
+                for (int x = tileX; x < tileRight; x++) {
+                    int inputOffset = (srcHeight - 1 - left - x) * rowStride + top + tileY;
+                    int outputOffset = tileY * width + x;
+                    for (int y = tileY; y < tileBottom; y++) {
+                        dst[outputOffset] = src.get(inputOffset++);
+                        outputOffset += width;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void copy(byte[] src, int srcWidth, int left, int top, int width, int height,
+                             byte[] dst) {
+        int inputOffset = top * srcWidth + left;
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(src, inputOffset, dst, y * width, width);
+            inputOffset += srcWidth;
+        }
+    }
+
+    private static void rotate180(byte[] src, int srcWidth, int srcHeight, int left, int top,
+                                  int width, int height, byte[] dst) {
+        // Rotated (x, y) comes from (srcWidth - 1 - x, srcHeight - 1 - y).
+        int outputOffset = 0;
+        for (int y = 0; y < height; y++) {
+            int inputOffset = (srcHeight - 1 - top - y) * srcWidth + srcWidth - 1 - left;
+            for (int x = 0; x < width; x++) {
+                dst[outputOffset++] = src[inputOffset--];
+            }
+        }
+    }
+
+    private static void rotate90(byte[] src, int srcWidth, int srcHeight, int left, int top,
+                                 int width, int height, byte[] dst) {
+        // Rotated (x, y) comes from (y, srcHeight - 1 - x).
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            int tileBottom = Math.min(tileY + TILE_SIZE, height);
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                int tileRight = Math.min(tileX + TILE_SIZE, width);
+                for (int x = tileX; x < tileRight; x++) {
+                    int inputOffset = (srcHeight - 1 - left - x) * srcWidth + top + tileY;
+                    int outputOffset = tileY * width + x;
+                    for (int y = tileY; y < tileBottom; y++) {
+                        dst[outputOffset] = src[inputOffset++];
+                        outputOffset += width;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void rotate270(byte[] src, int srcWidth, int left, int top, int width,
+                                  int height, byte[] dst) {
+        // Rotated (x, y) comes from (srcWidth - 1 - y, x).
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            int tileBottom = Math.min(tileY + TILE_SIZE, height);
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                int tileRight = Math.min(tileX + TILE_SIZE, width);
+                for (int x = tileX; x < tileRight; x++) {
+                    int inputOffset = (left + x) * srcWidth + srcWidth - 1 - top - tileY;
+                    int outputOffset = tileY * width + x;
+                    for (int y = tileY; y < tileBottom; y++) {
+                        dst[outputOffset] = src[inputOffset--];
+                        outputOffset += width;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isQuarterTurn(int rotation) {
+        int normalized = normalize(rotation);
+        return normalized == 90 || normalized == 270;
+    }
+
+    private static int normalize(int rotation) {
+        int normalized = ((rotation % 360) + 360) % 360;
+        if (normalized % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees: " + rotation);
+        }
+        return normalized;
+    }
+}
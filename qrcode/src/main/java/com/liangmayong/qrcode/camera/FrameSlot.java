@@ -0,0 +1,141 @@
+package com.liangmayong.qrcode.camera;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The newest-frame handoff between a frame source and the decode workers: a single slot that
+ * always holds the newest frame, and the queue of workers waiting for one. {@link PreviewCallback}
+ * uses it for the buffers of the old camera, the {@link CameraBackend}s for their
+ * {@link PreviewFrame}s.
+ * <p>
+ * A frame replaced before anybody took it is handed back to the caller of
+ * {@link #publish(Object, int, int)}, which recycles it in whatever way the source needs. Every
+ * method is synchronized on the slot; an owner that keeps its own state about the frames, e.g.
+ * which buffers are in use, calls it under its own lock so both change in one step.
+ *
+ * @param <T> the frame type
+ */
+final class FrameSlot<T> {
+
+    private final List<FrameRequest> frameRequests = new ArrayList<FrameRequest>();
+    private T latestFrame;
+    private int frameWidth;
+    private int frameHeight;
+    private long deliveredFrames;
+    private long unclaimedFrames;
+
+    /**
+     * Asks for a frame. If the slot already holds one, the handler is told right away; otherwise
+     * it is queued for the next frame. Each frame goes to the oldest waiting handler, and a
+     * handler that is already waiting is not queued twice. The message carries the frame width
+     * and height as arg1 and arg2.
+     *
+     * @return true if a frame is waiting in the slot, false if the request was queued
+     */
+    synchronized boolean addRequest(Handler handler, int message) {
+        if (latestFrame != null) {
+            handler.obtainMessage(message, frameWidth, frameHeight).sendToTarget();
+            return true;
+        }
+        for (FrameRequest request : frameRequests) {
+            if (request.handler == handler) {
+                return false;
+            }
+        }
+        frameRequests.add(new FrameRequest(handler, message));
+        return false;
+    }
+
+    synchronized boolean hasRequests() {
+        return !frameRequests.isEmpty();
+    }
+
+    synchronized void clearRequests() {
+        frameRequests.clear();
+    }
+
+    /**
+     * Puts a new frame in the slot and tells the oldest waiting handler.
+     *
+     * @return the frame it replaced, which nobody took in time and which the caller recycles,
+     * or null
+     */
+    synchronized T publish(T frame, int width, int height) {
+        deliveredFrames++;
+        T staleFrame = latestFrame;
+        latestFrame = frame;
+        frameWidth = width;
+        frameHeight = height;
+        if (staleFrame != null) {
+            unclaimedFrames++;
+        }
+        if (!frameRequests.isEmpty()) {
+            FrameRequest request = frameRequests.remove(0);
+            request.handler.obtainMessage(request.message, width, height).sendToTarget();
+        }
+        return staleFrame;
+    }
+
+    /**
+     * Takes the newest frame out of the slot.
+     *
+     * @return the frame, or null if another consumer took it first
+     */
+    synchronized T take() {
+        T frame = latestFrame;
+        latestFrame = null;
+        return frame;
+    }
+
+    /**
+     * @return the frame waiting in the slot, which stays there, or null
+     */
+    synchronized T peek() {
+        return latestFrame;
+    }
+
+    /**
+     * Empties the slot.
+     *
+     * @return the frame that was waiting, for the caller to recycle, or null
+     */
+    synchronized T clear() {
+        return take();
+    }
+
+    /**
+     * Counts frames from zero again.
+     */
+    synchronized void resetFrameCounts() {
+        deliveredFrames = 0;
+        unclaimedFrames = 0;
+    }
+
+    /**
+     * @return frames published since the counts were last reset
+     */
+    synchronized long getDeliveredFrameCount() {
+        return deliveredFrames;
+    }
+
+    /**
+     * @return published frames that were replaced before anybody took them
+     */
+    synchronized long getUnclaimedFrameCount() {
+        return unclaimedFrames;
+    }
+
+    private static final class FrameRequest {
+
+        private final Handler handler;
+        private final int message;
+
+        FrameRequest(Handler handler, int message) {
+            this.handler = handler;
+            this.message = message;
+        }
+    }
+}
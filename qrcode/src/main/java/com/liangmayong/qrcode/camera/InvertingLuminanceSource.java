@@ -0,0 +1,81 @@
+package com.liangmayong.qrcode.camera;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * A LuminanceSource that presents another source with black and white swapped, so light codes
+ * on a dark background decode like ordinary ones.
+ * <p>
+ * Unlike ZXing's own inverted source, no inverted copy of the frame is made per call: rows are
+ * inverted in place in the caller's row buffer, and the matrix is inverted once, on first use,
+ * into a buffer supplied by the caller, e.g. from a {@link FrameBufferPool}.
+ */
+public final class InvertingLuminanceSource extends LuminanceSource {
+
+    private final LuminanceSource delegate;
+    private final byte[] matrix;
+    private boolean matrixReady;
+
+    /**
+     * @param delegate the source to invert
+     * @param matrix   reusable buffer of at least width * height bytes for {@link #getMatrix()},
+     *                 or null to allocate one on first use
+     */
+    public InvertingLuminanceSource(LuminanceSource delegate, byte[] matrix) {
+        super(delegate.getWidth(), delegate.getHeight());
+        if (matrix != null && matrix.length < getWidth() * getHeight()) {
+            throw new IllegalArgumentException("Matrix buffer is smaller than the source.");
+        }
+        this.delegate = delegate;
+        this.matrix = matrix;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        int width = getWidth();
+        if (matrixReady) {
+            if (row == null || row.length < width) {
+                row = new byte[width];
+            }
+            System.arraycopy(matrix, y * width, row, 0, width);
+            return row;
+        }
+        row = delegate.getRow(y, row);
+        invert(row, row, width);
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        if (matrixReady) {
+            return matrix;
+        }
+        int size = getWidth() * getHeight();
+        byte[] output = matrix != null ? matrix : new byte[size];
+        invert(delegate.getMatrix(), output, size);
+        // Only a caller supplied buffer is owned by this source and can be served again.
+        matrixReady = matrix != null;
+        return output;
+    }
+
+    private static void invert(byte[] input, byte[] output, int length) {
+        for (int i = 0; i < length; i++) {
+            output[i] = (byte) (255 - (input[i] & 0xff));
+        }
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return delegate.isCropSupported();
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new InvertingLuminanceSource(delegate.crop(left, top, width, height), null);
+    }
+
+    @Override
+    public LuminanceSource invert() {
+        return delegate;
+    }
+}
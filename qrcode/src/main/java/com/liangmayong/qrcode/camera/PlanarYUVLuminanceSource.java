@@ -21,7 +21,6 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.os.Build;
 
 import com.google.zxing.LuminanceSource;
 
@@ -115,49 +114,15 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
         return dataHeight;
     }
 
+    /**
+     * Renders the crop as a greyscale thumbnail, see {@link ThumbnailRenderer}.
+     *
+     * @return a thumbnail at most {@link ThumbnailRenderer#DEFAULT_MAX_SIZE} pixels on its longer
+     * side, or null
+     */
     public Bitmap renderCroppedGreyscaleBitmap() {
-        try {
-            int width = getWidth();
-            int height = getHeight();
-            int[] pixels = new int[width * height];
-            byte[] yuv = yuvData;
-            int inputOffset = top * dataWidth + left;
-            for (int y = 0; y < height; y++) {
-                int outputOffset = y * width;
-                for (int x = 0; x < width; x++) {
-                    int grey = yuv[inputOffset + x] & 0xff;
-                    pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
-                }
-                inputOffset += dataWidth;
-            }
-            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-            bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-            int sw = 200;
-            int sh = 200;
-            if (width > height) {
-                sh = sw * height / width;
-            } else if (height > width) {
-                sw = sh * width / height;
-            }
-            Bitmap bitmap2 = getSmallBitmap(bitmap, sw, sh);
-            int size = getBitmapSize(bitmap2);
-            if (size / 1024 >= 100) {
-                return null;
-            }
-            return bitmap2;
-        } catch (Exception e) {
-        }
-        return null;
-    }
-
-    private int getBitmapSize(Bitmap bitmap) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) { //API 19
-            return bitmap.getAllocationByteCount();
-        }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {//API 12
-            return bitmap.getByteCount();
-        }
-        return bitmap.getRowBytes() * bitmap.getHeight();//earlier version
+        return new ThumbnailRenderer(ThumbnailRenderer.DEFAULT_MAX_SIZE)
+                .render(yuvData, dataWidth, left, top, getWidth(), getHeight());
     }
 
     public Bitmap getSmallBitmap(Bitmap bitmap, int width, int height) {
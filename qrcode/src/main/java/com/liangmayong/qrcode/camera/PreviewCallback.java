@@ -16,42 +16,195 @@
 
 package com.liangmayong.qrcode.camera;
 
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.hardware.Camera;
 import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
 
+/**
+ * Hands preview frames to the decode workers through a {@link FrameSlot} that always holds the
+ * newest frame. The camera publishes each frame into the slot and recycles the frame it replaces,
+ * so a frame nobody took in time is never queued. A worker that becomes idle takes whatever the
+ * slot holds; if it is empty, the worker waits for the next frame.
+ * <p>
+ * The slot is only used under this callback's monitor, so taking a frame and marking its buffer
+ * in use are one step.
+ */
 final class PreviewCallback implements Camera.PreviewCallback {
 
   private static final String TAG = PreviewCallback.class.getSimpleName();
 
   private final CameraConfigurationManager configManager;
   private final boolean useOneShotPreviewCallback;
-  private Handler previewHandler;
-  private int previewMessage;
+  private final FrameSlot<byte[]> frameSlot = new FrameSlot<byte[]>();
+  private byte[][] callbackBuffers;
+  private boolean[] buffersInUse;
+  private boolean useCallbackBuffers;
 
   PreviewCallback(CameraConfigurationManager configManager, boolean useOneShotPreviewCallback) {
     this.configManager = configManager;
     this.useOneShotPreviewCallback = useOneShotPreviewCallback;
   }
 
-  void setHandler(Handler previewHandler, int previewMessage) {
-    this.previewHandler = previewHandler;
-    this.previewMessage = previewMessage;
+  /**
+   * Asks for a preview frame. If the slot already holds one, the handler is told right away;
+   * otherwise it is queued for the next frame. Each frame goes to the oldest waiting handler, so
+   * several decode workers can wait for frames at the same time. A handler that is already
+   * waiting is not queued twice. The handler then takes the frame with {@link #takeFrame()}.
+   *
+   * @return true if a frame is waiting in the slot, false if the request was queued
+   */
+  synchronized boolean addHandler(Handler previewHandler, int previewMessage) {
+    return frameSlot.addRequest(previewHandler, previewMessage);
+  }
+
+  /**
+   * Takes the newest frame out of the slot. May be called from any thread. The buffer is marked
+   * in use in the same step, so a preview restart never queues it to the camera while it is
+   * being decoded.
+   *
+   * @return the frame, or null if another consumer took it first
+   */
+  synchronized byte[] takeFrame() {
+    byte[] data = frameSlot.take();
+    if (data != null && useCallbackBuffers) {
+      markBufferInUse(data);
+    }
+    return data;
+  }
+
+  /**
+   * Empties the slot, e.g. when the preview stops. The frame is not given back to the camera,
+   * the buffer ring is queued again as a whole when the preview restarts.
+   */
+  synchronized void clearFrame() {
+    frameSlot.clear();
+  }
+
+  synchronized boolean hasHandlers() {
+    return frameSlot.hasRequests();
+  }
+
+  synchronized void clearHandlers() {
+    frameSlot.clearRequests();
   }
 
-  public void onPreviewFrame(byte[] data, Camera camera) {
+  /**
+   * Hands a ring of preview buffers to the camera and registers this callback with
+   * setPreviewCallbackWithBuffer, so the camera fills our buffers instead of allocating a new
+   * byte[] for every frame. The ring is kept across preview restarts as long as the frame size
+   * does not change.
+   */
+  synchronized void startBufferedPreview(Camera camera, int bufferCount) {
     Point cameraResolution = configManager.getCameraResolution();
-    if (!useOneShotPreviewCallback) {
+    int bitsPerPixel = ImageFormat.getBitsPerPixel(configManager.getPreviewFormat());
+    if (bitsPerPixel <= 0) {
+      // Unknown to ImageFormat, e.g. "yuv420p". 16 bits covers every planar YUV layout.
+      bitsPerPixel = 16;
+    }
+    int bufferSize = cameraResolution.x * cameraResolution.y * bitsPerPixel / 8;
+    if (callbackBuffers == null || callbackBuffers.length != bufferCount
+        || callbackBuffers[0].length != bufferSize) {
+      callbackBuffers = new byte[bufferCount][];
+      buffersInUse = new boolean[bufferCount];
+      for (int i = 0; i < bufferCount; i++) {
+        callbackBuffers[i] = new byte[bufferSize];
+      }
+    }
+    byte[] waitingFrame = frameSlot.peek();
+    for (int i = 0; i < callbackBuffers.length; i++) {
+      // A buffer still being decoded is queued again when its consumer releases it, and so is
+      // the one waiting in the slot, which a consumer may still take.
+      if (!buffersInUse[i] && callbackBuffers[i] != waitingFrame) {
+        camera.addCallbackBuffer(callbackBuffers[i]);
+      }
+    }
+    camera.setPreviewCallbackWithBuffer(this);
+    useCallbackBuffers = true;
+  }
+
+  synchronized void stopBufferedPreview(Camera camera) {
+    if (useCallbackBuffers) {
+      camera.setPreviewCallbackWithBuffer(null);
+      useCallbackBuffers = false;
+    }
+  }
+
+  synchronized boolean isBufferedPreview() {
+    return useCallbackBuffers;
+  }
+
+  /**
+   * Gives a frame buffer back to the camera once its consumer is done with it. Buffers of a ring
+   * that has since been replaced are left to the garbage collector.
+   */
+  synchronized void releaseBuffer(Camera camera, byte[] data) {
+    int index = indexOfBuffer(data);
+    if (index < 0) {
+      return;
+    }
+    buffersInUse[index] = false;
+    if (useCallbackBuffers) {
+      camera.addCallbackBuffer(data);
+    }
+  }
+
+  /**
+   * Counts frames from zero again.
+   */
+  synchronized void resetFrameCounts() {
+    frameSlot.resetFrameCounts();
+  }
+
+  /**
+   * @return frames the camera delivered since the counts were last reset
+   */
+  synchronized long getDeliveredFrameCount() {
+    return frameSlot.getDeliveredFrameCount();
+  }
+
+  /**
+   * @return delivered frames that no handler took before the next one came
+   */
+  synchronized long getUnclaimedFrameCount() {
+    return frameSlot.getUnclaimedFrameCount();
+  }
+
+  private void markBufferInUse(byte[] data) {
+    int index = indexOfBuffer(data);
+    if (index >= 0) {
+      buffersInUse[index] = true;
+    }
+  }
+
+  private int indexOfBuffer(byte[] data) {
+    if (callbackBuffers != null && data != null) {
+      for (int i = 0; i < callbackBuffers.length; i++) {
+        if (callbackBuffers[i] == data) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  public synchronized void onPreviewFrame(byte[] data, Camera camera) {
+    if (!useOneShotPreviewCallback && !useCallbackBuffers) {
       camera.setPreviewCallback(null);
     }
-    if (previewHandler != null) {
-      Message message = previewHandler.obtainMessage(previewMessage, cameraResolution.x,
-          cameraResolution.y, data);
-      message.sendToTarget();
-      previewHandler = null;
-    } else {
+    boolean requested = frameSlot.hasRequests();
+    Point cameraResolution = configManager.getCameraResolution();
+    byte[] staleFrame = frameSlot.publish(data, cameraResolution.x, cameraResolution.y);
+    if (staleFrame != null && useCallbackBuffers) {
+      // Nobody took the previous frame in time; it is not worth decoding anymore.
+      camera.addCallbackBuffer(staleFrame);
+    }
+    if (requested) {
+      if (!useCallbackBuffers && useOneShotPreviewCallback && frameSlot.hasRequests()) {
+        camera.setOneShotPreviewCallback(this);
+      }
+    } else if (!useCallbackBuffers) {
       Log.d(TAG, "Got preview callback, but no handler for it");
     }
   }
@@ -0,0 +1,185 @@
+package com.liangmayong.qrcode.camera;
+
+import android.graphics.Rect;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One unrotated preview frame as the decoders see it: the Y plane, either in the byte[] the old
+ * camera API fills or in the ByteBuffer of a Camera2 image, whose rows may be padded to a
+ * stride wider than the frame. Everything that only samples the frame reads it through
+ * {@link #getLuminance(int, int)} or a luminance source built with
+ * {@link #buildRotatedLuminanceSource(Rect, byte[])}, so a buffer-backed frame is never copied
+ * into an array.
+ * <p>
+ * A frame belongs to the camera backend that delivered it and must be handed back with
+ * {@link CameraManager#releasePreviewFrame(PreviewFrame)}; it must not be read afterwards.
+ */
+public final class PreviewFrame {
+
+    private final byte[] data;
+    private final ByteBuffer plane;
+    private final int rowStride;
+    private final int width;
+    private final int height;
+    private final long timestampNanos;
+    private final Object token;
+
+    /**
+     * @param data           the frame, Y plane first with rows as wide as the frame
+     * @param width          width of the frame
+     * @param height         height of the frame
+     * @param timestampNanos {@link System#nanoTime()} when the frame arrived
+     */
+    public PreviewFrame(byte[] data, int width, int height, long timestampNanos) {
+        if (data.length < width * height) {
+            throw new IllegalArgumentException("Frame data is smaller than the frame.");
+        }
+        this.data = data;
+        this.plane = null;
+        this.rowStride = width;
+        this.width = width;
+        this.height = height;
+        this.timestampNanos = timestampNanos;
+        this.token = null;
+    }
+
+    /**
+     * @param plane          the Y plane, one byte per pixel; its position and limit are ignored
+     * @param rowStride      distance in bytes between the starts of two rows
+     * @param width          width of the frame
+     * @param height         height of the frame
+     * @param timestampNanos {@link System#nanoTime()} when the frame arrived
+     */
+    public PreviewFrame(ByteBuffer plane, int rowStride, int width, int height, long timestampNanos) {
+        this(plane, rowStride, width, height, timestampNanos, null);
+    }
+
+    PreviewFrame(ByteBuffer plane, int rowStride, int width, int height, long timestampNanos,
+                 Object token) {
+        if (rowStride < width) {
+            throw new IllegalArgumentException("Row stride is smaller than the width: " + rowStride);
+        }
+        // The last row of a padded plane may stop right after its last pixel.
+        if (plane.capacity() < (height - 1) * rowStride + width) {
+            throw new IllegalArgumentException("Plane is smaller than the frame.");
+        }
+        this.data = null;
+        this.plane = plane;
+        this.rowStride = rowStride;
+        this.width = width;
+        this.height = height;
+        this.timestampNanos = timestampNanos;
+        this.token = token;
+    }
+
+    /**
+     * What the backend needs to recycle the frame, e.g. the Camera2 image.
+     */
+    Object getToken() {
+        return token;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return distance in bytes between the starts of two rows
+     */
+    public int getRowStride() {
+        return rowStride;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the frame arrived, or when a decoder took it if the
+     * backend does not know
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return true if the frame lives in a ByteBuffer instead of an array
+     */
+    public boolean isBufferBacked() {
+        return plane != null;
+    }
+
+    /**
+     * @return the frame data, or null for a buffer-backed frame
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return the Y plane, or null for an array-backed frame
+     */
+    public ByteBuffer getPlane() {
+        return plane;
+    }
+
+    /**
+     * @param x column of the unrotated frame
+     * @param y row of the unrotated frame
+     * @return the luminance, from 0 to 255
+     */
+    public int getLuminance(int x, int y) {
+        int index = y * rowStride + x;
+        return (data != null ? data[index] : plane.get(index)) & 0xff;
+    }
+
+    /**
+     * Copies the Y plane into an array with rows as wide as the frame, for code that can only
+     * read a byte[]. Avoid it on the decode path; it is what buffer-backed frames save.
+     *
+     * @param output at least width * height bytes
+     */
+    public void copyLuminance(byte[] output) {
+        if (output.length < width * height) {
+            throw new IllegalArgumentException("Output is smaller than the frame.");
+        }
+        if (data != null) {
+            System.arraycopy(data, 0, output, 0, width * height);
+            return;
+        }
+        // Absolute positions on a duplicate, so several threads may copy the same frame.
+        ByteBuffer rows = plane.duplicate();
+        for (int y = 0; y < height; y++) {
+            rows.limit(y * rowStride + width);
+            rows.position(y * rowStride);
+            rows.get(output, y * width, width);
+        }
+    }
+
+    /**
+     * Builds a source that serves a rectangle of the frame rotated 90 degrees clockwise, the way
+     * the portrait viewfinder shows it, straight from the array or the buffer.
+     *
+     * @param rect   the rectangle to serve, in rotated preview coordinates
+     * @param matrix reusable buffer for the cropped luminance matrix, or null
+     */
+    public RotatedPlanarYUVLuminanceSource buildRotatedLuminanceSource(Rect rect, byte[] matrix) {
+        return buildRotatedLuminanceSource(rect.left, rect.top, rect.width(), rect.height(), matrix);
+    }
+
+    /**
+     * Like {@link #buildRotatedLuminanceSource(Rect, byte[])}, with the rectangle given by its
+     * left, top, width and height in rotated preview coordinates.
+     */
+    public RotatedPlanarYUVLuminanceSource buildRotatedLuminanceSource(int left, int top,
+                                                                       int cropWidth, int cropHeight,
+                                                                       byte[] matrix) {
+        if (data != null) {
+            return new RotatedPlanarYUVLuminanceSource(data, width, height, left, top, cropWidth,
+                    cropHeight, matrix);
+        }
+        return new RotatedPlanarYUVLuminanceSource(plane, rowStride, width, height, left, top,
+                cropWidth, cropHeight, matrix);
+    }
+}
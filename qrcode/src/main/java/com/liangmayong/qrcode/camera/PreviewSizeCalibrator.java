@@ -0,0 +1,286 @@
+package com.liangmayong.qrcode.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Finds out which preview size decodes best on this device model. For every supported size with
+ * about the screen's aspect ratio, a synthetic QR code is drawn into a frame of that size, where
+ * a code held to fill part of the viewfinder would be, and the frame is rotated, cropped and
+ * decoded the way the scan loop does it. Sizes whose modules come out too small to read reliably,
+ * or that fail to decode, are out. Of the rest, the largest size that still decodes at
+ * {@value #TARGET_DECODES_PER_SECOND} frames per second wins, or the fastest one if none does.
+ * <p>
+ * The calibration runs once per device model, on a background thread while no scan session is
+ * running, and the choice is saved in the app's shared preferences; the camera uses it from the
+ * next start of the app on. A calibration cancelled by a new session is run again later.
+ */
+final class PreviewSizeCalibrator {
+
+    private static final String TAG = PreviewSizeCalibrator.class.getSimpleName();
+
+    private static final String PREFERENCES_NAME = "qrcode_preview_calibration";
+    private static final String SIZE_KEY_PREFIX = "size.";
+    /**
+     * Saved when no size passed, so the calibration is not run again.
+     */
+    private static final String NO_SIZE = "";
+
+    private static final float MAX_ASPECT_DIFFERENCE = 0.15f;
+    private static final int MAX_CANDIDATE_PIXELS = 1920 * 1080;
+    /**
+     * Side of the test code as a share of the shorter side of the framing rect.
+     */
+    private static final float TEST_CODE_FILL = 0.5f;
+    /**
+     * Long enough for a version 5 code, 37 modules a side, typical of URLs.
+     */
+    private static final String TEST_CODE_CONTENTS =
+            "https://github.com/LiangMaYong/android_qrcode/preview-size-calibration";
+    private static final float MIN_MODULE_PIXELS = 2.5f;
+    private static final float TARGET_DECODES_PER_SECOND = 20f;
+    private static final int RUNS = 3;
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+    private static volatile boolean cancelled;
+
+    private PreviewSizeCalibrator() {
+    }
+
+    /**
+     * @return true if this device model was calibrated, whether or not a size passed
+     */
+    static boolean isCalibrated(Context context) {
+        return getPreferences(context).contains(getKey());
+    }
+
+    /**
+     * @param supportedSizes the preview sizes the camera supports now
+     * @return the calibrated size, or null if there is none or it is no longer supported
+     */
+    static Point getCalibratedSize(Context context, List<Point> supportedSizes) {
+        String value = getPreferences(context).getString(getKey(), NO_SIZE);
+        int separator = value.indexOf('x');
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            Point size = new Point(Integer.parseInt(value.substring(0, separator)),
+                    Integer.parseInt(value.substring(separator + 1)));
+            return supportedSizes.contains(size) ? size : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Calibrates on a background thread and saves the result, unless a calibration is already
+     * running. Start it only while no scan session is running, the decode workers would compete
+     * with it for the CPU.
+     *
+     * @param supportedSizes   the preview sizes the camera supports
+     * @param screenResolution the screen size the framing rect is given in
+     * @param framingRect      the framing rect in screen coordinates
+     */
+    static void calibrateInBackground(Context context, final List<Point> supportedSizes,
+                                      final Point screenResolution, final Rect framingRect) {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        cancelled = false;
+        final Context applicationContext = context.getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    Point size = calibrate(supportedSizes, screenResolution, framingRect);
+                    if (cancelled) {
+                        // Not saved, so the next session calibrates again.
+                        Log.d(TAG, "Preview size calibration cancelled");
+                        return;
+                    }
+                    Log.d(TAG, "Calibrated preview size: " + size);
+                    getPreferences(applicationContext).edit()
+                            .putString(getKey(), size != null ? size.x + "x" + size.y : NO_SIZE)
+                            .apply();
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Preview size calibration failed", e);
+                } finally {
+                    running.set(false);
+                }
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * Gives up a running calibration after the size it is measuring, without saving anything.
+     */
+    static void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Measures every candidate size and picks one, see the class comment.
+     *
+     * @return the size, or null if none passed or the calibration was cancelled
+     */
+    static Point calibrate(List<Point> supportedSizes, Point screenResolution, Rect framingRect) {
+        BitMatrix code = encodeTestCode();
+        List<Point> candidates = findCandidates(supportedSizes, screenResolution);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        // The first decodes run interpreted, warm up before anything is timed.
+        measure(candidates.get(0), screenResolution, framingRect, code);
+        Point fastest = null;
+        float fastestRate = 0f;
+        Point largestOnTarget = null;
+        for (Point size : candidates) {
+            if (cancelled) {
+                return null;
+            }
+            long nanos = measure(size, screenResolution, framingRect, code);
+            if (nanos <= 0) {
+                continue;
+            }
+            float rate = 1000000000f / nanos;
+            Log.d(TAG, "Preview size " + size.x + "x" + size.y + ": " + rate + " decodes/s");
+            if (rate > fastestRate) {
+                fastest = size;
+                fastestRate = rate;
+            }
+            if (rate >= TARGET_DECODES_PER_SECOND && (largestOnTarget == null
+                    || size.x * size.y > largestOnTarget.x * largestOnTarget.y)) {
+                largestOnTarget = size;
+            }
+        }
+        return largestOnTarget != null ? largestOnTarget : fastest;
+    }
+
+    private static List<Point> findCandidates(List<Point> supportedSizes, Point screenResolution) {
+        float screenAspect = (float) Math.max(screenResolution.x, screenResolution.y)
+                / Math.min(screenResolution.x, screenResolution.y);
+        List<Point> candidates = new ArrayList<Point>();
+        for (Point size : supportedSizes) {
+            // Preview sizes are landscape, like the unrotated frames.
+            float aspect = (float) size.x / size.y;
+            if (size.x * size.y <= MAX_CANDIDATE_PIXELS
+                    && Math.abs(aspect - screenAspect) <= MAX_ASPECT_DIFFERENCE) {
+                candidates.add(size);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Decodes the test code in a frame of the given size.
+     *
+     * @return the fastest of a few rotate and decode runs in nanoseconds, or -1 if the modules
+     * are too small or the code was not found
+     */
+    private static long measure(Point size, Point screenResolution, Rect framingRect, BitMatrix code) {
+        // The crop the scan loop decodes, see CameraManager.getFramingRectInPreview().
+        Rect crop = new Rect(framingRect.left * size.y / screenResolution.x,
+                framingRect.top * size.x / screenResolution.y,
+                framingRect.right * size.y / screenResolution.x,
+                framingRect.bottom * size.x / screenResolution.y);
+        int codeSide = (int) (Math.min(crop.width(), crop.height()) * TEST_CODE_FILL);
+        if ((float) codeSide / code.getWidth() < MIN_MODULE_PIXELS) {
+            return -1;
+        }
+        byte[] frame = renderFrame(size, crop, code, codeSide);
+        byte[] matrix = new byte[crop.width() * crop.height()];
+        QRCodeReader reader = new QRCodeReader();
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            RotatedPlanarYUVLuminanceSource source = new RotatedPlanarYUVLuminanceSource(frame,
+                    size.x, size.y, crop.left, crop.top, crop.width(), crop.height(), matrix);
+            source.getMatrix();
+            Result result;
+            try {
+                result = reader.decode(new BinaryBitmap(new HybridBinarizer(source)));
+            } catch (Exception e) {
+                return -1;
+            } finally {
+                reader.reset();
+            }
+            long nanos = System.nanoTime() - start;
+            if (!TEST_CODE_CONTENTS.equals(result.getText())) {
+                return -1;
+            }
+            best = Math.min(best, nanos);
+        }
+        return best;
+    }
+
+    /**
+     * Draws the code into the middle of the crop of an unrotated frame, with a little sensor
+     * noise, less than the binarizer takes for contrast on an even background.
+     */
+    private static byte[] renderFrame(Point size, Rect crop, BitMatrix code, int codeSide) {
+        int dataWidth = size.x;
+        int dataHeight = size.y;
+        byte[] frame = new byte[dataWidth * dataHeight];
+        Random random = new Random(dataWidth * 31L + dataHeight);
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (180 + random.nextInt(16));
+        }
+        int modules = code.getWidth();
+        int codeLeft = crop.left + (crop.width() - codeSide) / 2;
+        int codeTop = crop.top + (crop.height() - codeSide) / 2;
+        for (int y = 0; y < codeSide; y++) {
+            int moduleY = y * modules / codeSide;
+            for (int x = 0; x < codeSide; x++) {
+                if (code.get(x * modules / codeSide, moduleY)) {
+                    // Rotated pixel (x, y) lives at column y, row (dataHeight - 1 - x).
+                    frame[(dataHeight - 1 - codeLeft - x) * dataWidth + codeTop + y] =
+                            (byte) (40 + random.nextInt(16));
+                }
+            }
+        }
+        return frame;
+    }
+
+    private static BitMatrix encodeTestCode() {
+        Hashtable<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
+        hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M);
+        // No quiet zone in the matrix, the background around the code is one.
+        hints.put(EncodeHintType.MARGIN, 0);
+        try {
+            return new QRCodeWriter().encode(TEST_CODE_CONTENTS, BarcodeFormat.QR_CODE, 0, 0, hints);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static String getKey() {
+        return SIZE_KEY_PREFIX + Build.MODEL;
+    }
+}
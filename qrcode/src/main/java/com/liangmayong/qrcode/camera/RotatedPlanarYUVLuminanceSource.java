@@ -0,0 +1,172 @@
+package com.liangmayong.qrcode.camera;
+
+import android.graphics.Bitmap;
+
+import com.google.zxing.LuminanceSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A LuminanceSource over the Y plane of an unrotated camera frame that presents the frame rotated
+ * 90 degrees clockwise, the way the portrait viewfinder shows it. Pixels are fetched by index
+ * mapping straight from the camera data, so only the cropped rectangle is ever read and the frame
+ * is never transposed as a whole. The Y plane may be a byte[] or the ByteBuffer of a Camera2
+ * image with padded rows; the buffer is read in place, never copied into an array first.
+ * <p>
+ * The crop rectangle is expressed in rotated coordinates, which is what
+ * {@link CameraManager#getFramingRectInPreview()} returns.
+ */
+public final class RotatedPlanarYUVLuminanceSource extends LuminanceSource {
+
+    private final byte[] yuvData;
+    private final ByteBuffer yPlane;
+    private final int rowStride;
+    private final int dataWidth;
+    private final int dataHeight;
+    private final int left;
+    private final int top;
+    private final byte[] matrix;
+    private boolean matrixReady;
+
+    /**
+     * @param yuvData    the unrotated camera frame
+     * @param dataWidth  width of the unrotated frame
+     * @param dataHeight height of the unrotated frame
+     * @param left       left of the crop in rotated coordinates
+     * @param top        top of the crop in rotated coordinates
+     * @param width      width of the crop in rotated coordinates
+     * @param height     height of the crop in rotated coordinates
+     * @param matrix     reusable buffer of at least width * height bytes for {@link #getMatrix()},
+     *                   or null to allocate one on first use
+     */
+    public RotatedPlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight, int left,
+                                           int top, int width, int height, byte[] matrix) {
+        this(yuvData, null, dataWidth, dataWidth, dataHeight, left, top, width, height, matrix);
+    }
+
+    /**
+     * Like {@link #RotatedPlanarYUVLuminanceSource(byte[], int, int, int, int, int, int, byte[])}
+     * but over a Y plane in a ByteBuffer, e.g. plane 0 of a YUV_420_888 image.
+     *
+     * @param yPlane    the unrotated Y plane, one byte per pixel
+     * @param rowStride distance in bytes between the starts of two rows of the plane
+     */
+    public RotatedPlanarYUVLuminanceSource(ByteBuffer yPlane, int rowStride, int dataWidth,
+                                           int dataHeight, int left, int top, int width,
+                                           int height, byte[] matrix) {
+        this(null, yPlane, rowStride, dataWidth, dataHeight, left, top, width, height, matrix);
+    }
+
+    private RotatedPlanarYUVLuminanceSource(byte[] yuvData, ByteBuffer yPlane, int rowStride,
+                                            int dataWidth, int dataHeight, int left, int top,
+                                            int width, int height, byte[] matrix) {
+        super(width, height);
+
+        // The rotated frame is dataHeight wide and dataWidth tall.
+        if (left < 0 || top < 0 || left + width > dataHeight || top + height > dataWidth) {
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        }
+        if (matrix != null && matrix.length < width * height) {
+            throw new IllegalArgumentException("Matrix buffer is smaller than the crop rectangle.");
+        }
+
+        this.yuvData = yuvData;
+        this.yPlane = yPlane;
+        this.rowStride = rowStride;
+        this.dataWidth = dataWidth;
+        this.dataHeight = dataHeight;
+        this.left = left;
+        this.top = top;
+        this.matrix = matrix;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight()) {
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        }
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        if (matrixReady) {
+            System.arraycopy(matrix, y * width, row, 0, width);
+            return row;
+        }
+        // Rotated pixel (x, y) lives at column (top + y), row (dataHeight - 1 - left - x).
+        int stride = rowStride;
+        int inputOffset = (dataHeight - 1 - left) * stride + top + y;
+        byte[] yuv = yuvData;
+        if (yuv != null) {
+            for (int x = 0; x < width; x++) {
+                row[x] = yuv[inputOffset];
+                inputOffset -= stride;
+            }
+        } else {
+            ByteBuffer plane = yPlane;
+            for (int x = 0; x < width; x++) {
+                row[x] = plane.get(inputOffset);
+                inputOffset -= stride;
+            }
+        }
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        int width = getWidth();
+        int height = getHeight();
+        byte[] output = matrix != null ? matrix : new byte[width * height];
+        if (matrixReady) {
+            return output;
+        }
+        if (yuvData != null) {
+            FrameRotator.rotateCrop(yuvData, dataWidth, dataHeight, 90, left, top, width, height, output);
+        } else {
+            FrameRotator.rotateCrop(yPlane, rowStride, dataWidth, dataHeight, 90, left, top, width,
+                    height, output);
+        }
+        // Only a caller supplied buffer is owned by this source and can be served again.
+        matrixReady = matrix != null;
+        return output;
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new RotatedPlanarYUVLuminanceSource(yuvData, yPlane, rowStride, dataWidth, dataHeight,
+                this.left + left, this.top + top, width, height, null);
+    }
+
+    @Override
+    public LuminanceSource invert() {
+        return new InvertingLuminanceSource(this, null);
+    }
+
+    public int getDataWidth() {
+        return dataWidth;
+    }
+
+    public int getDataHeight() {
+        return dataHeight;
+    }
+
+    public Bitmap renderCroppedGreyscaleBitmap() {
+        return renderCroppedGreyscaleBitmap(new ThumbnailRenderer(ThumbnailRenderer.DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * Renders the rotated crop as a greyscale thumbnail with the given renderer, which keeps its
+     * pixel buffer for the next thumbnail.
+     *
+     * @return the thumbnail, or null
+     */
+    public Bitmap renderCroppedGreyscaleBitmap(ThumbnailRenderer renderer) {
+        int width = getWidth();
+        return renderer.render(getMatrix(), width, 0, 0, width, getHeight());
+    }
+}
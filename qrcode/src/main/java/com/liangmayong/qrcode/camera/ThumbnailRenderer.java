@@ -0,0 +1,92 @@
+package com.liangmayong.qrcode.camera;
+
+import android.graphics.Bitmap;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Renders the greyscale thumbnail of a decoded frame. The luminance crop is box-downsampled
+ * straight into RGB_565 pixels of the target size in a single pass, so no full size bitmap or
+ * pixel array is made and nothing is scaled through a Canvas.
+ * <p>
+ * The pixel buffer is reused from one thumbnail to the next; the bitmap is new every time, since
+ * it is handed on to listeners and result intents. Not thread safe: each decode thread owns one.
+ */
+public final class ThumbnailRenderer {
+
+    /**
+     * Longer side of the thumbnail in pixels. A thumbnail of this size takes 80 KB.
+     */
+    public static final int DEFAULT_MAX_SIZE = 200;
+
+    private final int maxSize;
+    private short[] pixels;
+    private int[] columnStarts;
+
+    public ThumbnailRenderer(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Thumbnail size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param data       luminance bytes, one per pixel
+     * @param dataWidth  row stride of the data
+     * @param left       left of the crop
+     * @param top        top of the crop
+     * @param width      width of the crop
+     * @param height     height of the crop
+     * @return a thumbnail whose longer side is the maximum size, or null if the bitmap could not
+     * be created
+     */
+    public Bitmap render(byte[] data, int dataWidth, int left, int top, int width, int height) {
+        int thumbnailWidth = maxSize;
+        int thumbnailHeight = maxSize;
+        if (width > height) {
+            thumbnailHeight = Math.max(1, maxSize * height / width);
+        } else if (height > width) {
+            thumbnailWidth = Math.max(1, maxSize * width / height);
+        }
+        int size = thumbnailWidth * thumbnailHeight;
+        if (pixels == null || pixels.length < size) {
+            pixels = new short[size];
+        }
+        if (columnStarts == null || columnStarts.length < thumbnailWidth + 1) {
+            columnStarts = new int[thumbnailWidth + 1];
+        }
+        // Each thumbnail pixel averages the block of crop pixels it covers, at least one.
+        for (int x = 0; x <= thumbnailWidth; x++) {
+            columnStarts[x] = x * width / thumbnailWidth;
+        }
+        short[] output = pixels;
+        int[] columns = columnStarts;
+        for (int y = 0; y < thumbnailHeight; y++) {
+            int rowStart = y * height / thumbnailHeight;
+            int rowEnd = Math.max(rowStart + 1, (y + 1) * height / thumbnailHeight);
+            int outputOffset = y * thumbnailWidth;
+            for (int x = 0; x < thumbnailWidth; x++) {
+                int columnStart = columns[x];
+                int columnEnd = Math.max(columnStart + 1, columns[x + 1]);
+                int sum = 0;
+                for (int sy = rowStart; sy < rowEnd; sy++) {
+                    int offset = (top + sy) * dataWidth + left;
+                    for (int sx = columnStart; sx < columnEnd; sx++) {
+                        sum += data[offset + sx] & 0xff;
+                    }
+                }
+                int grey = sum / ((rowEnd - rowStart) * (columnEnd - columnStart));
+                output[outputOffset + x] = (short) (((grey >> 3) << 11) | ((grey >> 2) << 5) | (grey >> 3));
+            }
+        }
+        try {
+            Bitmap bitmap = Bitmap.createBitmap(thumbnailWidth, thumbnailHeight, Bitmap.Config.RGB_565);
+            bitmap.copyPixelsFromBuffer(ShortBuffer.wrap(output, 0, size));
+            return bitmap;
+        } catch (RuntimeException e) {
+            return null;
+        } catch (OutOfMemoryError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.liangmayong.qrcode.decoding;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Wraps a LuminanceSource so that every read checks a {@link DecodeCancellation} first. Binarizers
+ * read the source row by row (or once for the whole matrix), which gives an abandoned decode a
+ * way out of ZXing's call stack without any change to the readers.
+ */
+final class CancellableLuminanceSource extends LuminanceSource {
+
+    private final LuminanceSource delegate;
+    private final DecodeCancellation cancellation;
+
+    CancellableLuminanceSource(LuminanceSource delegate, DecodeCancellation cancellation) {
+        super(delegate.getWidth(), delegate.getHeight());
+        this.delegate = delegate;
+        this.cancellation = cancellation;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        cancellation.throwIfCancelled();
+        return delegate.getRow(y, row);
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        cancellation.throwIfCancelled();
+        return delegate.getMatrix();
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return delegate.isCropSupported();
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new CancellableLuminanceSource(delegate.crop(left, top, width, height), cancellation);
+    }
+
+    @Override
+    public boolean isRotateSupported() {
+        return delegate.isRotateSupported();
+    }
+
+    @Override
+    public LuminanceSource rotateCounterClockwise() {
+        return new CancellableLuminanceSource(delegate.rotateCounterClockwise(), cancellation);
+    }
+
+    @Override
+    public LuminanceSource rotateCounterClockwise45() {
+        return new CancellableLuminanceSource(delegate.rotateCounterClockwise45(), cancellation);
+    }
+
+    @Override
+    public LuminanceSource invert() {
+        return new CancellableLuminanceSource(delegate.invert(), cancellation);
+    }
+}
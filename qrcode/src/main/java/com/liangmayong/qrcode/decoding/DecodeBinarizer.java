@@ -0,0 +1,42 @@
+package com.liangmayong.qrcode.decoding;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+/**
+ * The binarizers the live decode loop can turn a luminance source into a black and white image
+ * with.
+ */
+public enum DecodeBinarizer {
+
+    /**
+     * One global threshold per row or image. Cheap, and the best fit for 1D codes and evenly lit
+     * labels.
+     */
+    GLOBAL_HISTOGRAM {
+        @Override
+        public Binarizer create(LuminanceSource source) {
+            return new GlobalHistogramBinarizer(source);
+        }
+    },
+
+    /**
+     * Local thresholds per 8x8 block. Slower, but copes with shadows and uneven lighting.
+     */
+    HYBRID {
+        @Override
+        public Binarizer create(LuminanceSource source) {
+            return new HybridBinarizer(source);
+        }
+    };
+
+    /**
+     * create
+     *
+     * @param source source
+     * @return a new binarizer over the source
+     */
+    public abstract Binarizer create(LuminanceSource source);
+}
@@ -0,0 +1,102 @@
+package com.liangmayong.qrcode.decoding;
+
+/**
+ * Cooperative cancellation of the decode of one preview frame. ZXing cannot be interrupted, so
+ * the decode loop checks this token at safe points: between binarizer attempts, between reader
+ * families in {@link FormatOrderedReader} and, through {@link CancellableLuminanceSource},
+ * whenever a binarizer reads a row or the matrix from the frame.
+ * <p>
+ * A decode is superseded when it is cancelled explicitly, or once its worker pool has moved past
+ * the generation the decode started in. It times out when it runs past its deadline. Either way
+ * it is cancelled. A child token is cancelled together with its parent, but can also be
+ * cancelled on its own, e.g. when one of several parallel attempts has won.
+ */
+final class DecodeCancellation {
+
+    private final DecodeWorkerPool workerPool;
+    private final int generation;
+    private final DecodeCancellation parent;
+    private final boolean hasDeadline;
+    private final long deadlineNanos;
+    private volatile boolean cancelled;
+
+    /**
+     * @param deadlineNanos {@link System#nanoTime()} after which the decode times out
+     */
+    DecodeCancellation(DecodeWorkerPool workerPool, int generation, boolean hasDeadline, long deadlineNanos) {
+        this.workerPool = workerPool;
+        this.generation = generation;
+        this.parent = null;
+        this.hasDeadline = hasDeadline;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    DecodeCancellation(DecodeCancellation parent) {
+        this.workerPool = parent.workerPool;
+        this.generation = parent.generation;
+        this.parent = parent;
+        this.hasDeadline = false;
+        this.deadlineNanos = 0;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return isSuperseded() || isTimedOut();
+    }
+
+    /**
+     * @return whether the decode was cancelled for a reason other than its deadline; its result
+     * is not wanted anymore
+     */
+    boolean isSuperseded() {
+        if (cancelled) {
+            return true;
+        }
+        if (parent != null) {
+            return parent.isSuperseded();
+        }
+        return !workerPool.isCurrent(generation);
+    }
+
+    /**
+     * @return whether the decode ran past its deadline
+     */
+    boolean isTimedOut() {
+        if (parent != null) {
+            return parent.isTimedOut();
+        }
+        return hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    void throwIfCancelled() {
+        if (isCancelled()) {
+            throw new DecodeCancelledException();
+        }
+    }
+
+    /**
+     * Thrown from inside ZXing's call stack to abandon a decode. It is unchecked so it can pass
+     * through {@code LuminanceSource.getRow()}, and carries no stack trace since it is used for
+     * control flow only.
+     */
+    static final class DecodeCancelledException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        DecodeCancelledException() {
+            super("Decode cancelled");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
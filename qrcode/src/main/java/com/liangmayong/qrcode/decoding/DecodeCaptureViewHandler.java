@@ -38,7 +38,8 @@ public final class DecodeCaptureViewHandler extends Handler {
     private static final String TAG = DecodeCaptureViewHandler.class.getSimpleName();
 
     private final DecodeScanInterface scanInterface;
-    private final DecodeThread decodeThread;
+    private final DecodeWorkerPool workerPool;
+    private final FrameRateGovernor frameRateGovernor;
     private State state;
 
     private enum State {
@@ -50,11 +51,21 @@ public final class DecodeCaptureViewHandler extends Handler {
     public DecodeCaptureViewHandler(DecodeScanInterface scanInterface, Vector<BarcodeFormat> decodeFormats,
                                     String characterSet) {
         this.scanInterface = scanInterface;
-        decodeThread = new DecodeThread(scanInterface, decodeFormats, characterSet,
-                new DecodeViewfinderView.DecodeViewfinderResultPointCallback(scanInterface.getViewfinderView()));
-        decodeThread.start();
+        workerPool = new DecodeWorkerPool(scanInterface, decodeFormats, characterSet,
+                new DecodeViewfinderView.DecodeViewfinderResultPointCallback(scanInterface.getViewfinderView()),
+                scanInterface.getDecodeOptions().getDecodeWorkerCount());
+        if (scanInterface.getDecodeFrameFilter() != null) {
+            scanInterface.getDecodeFrameFilter().reset();
+        }
+        workerPool.start();
+        scanInterface.getFrameFunnel().start(workerPool.getWorkerCount());
+        frameRateGovernor = scanInterface.getDecodeOptions().isAdaptiveFrameRate()
+                ? new FrameRateGovernor(scanInterface.getFrameFunnel(), workerPool.getSceneChangeDetector(),
+                workerPool.getWorkerCount()) : null;
         state = State.SUCCESS;
         // Start ourselves capturing previews and decoding.
+        CameraManager.get().setFrameConsumerCount(workerPool.getWorkerCount());
+        CameraManager.get().setCameraErrorHandler(this, R.id.camera_error);
         CameraManager.get().startPreview();
         restartPreviewAndDecode();
     }
@@ -68,12 +79,23 @@ public final class DecodeCaptureViewHandler extends Handler {
             if (state == State.PREVIEW) {
                 CameraManager.get().requestAutoFocus(this, R.id.auto_focus);
             }
+        } else if (message.what == R.id.adjust_frame_rate) {
+            if (state != State.DONE) {
+                frameRateGovernor.update(state == State.PREVIEW);
+                sendEmptyMessageDelayed(R.id.adjust_frame_rate, FrameRateGovernor.INTERVAL_MS);
+            }
         } else if (message.what == R.id.restart_preview) {
             Log.d(TAG, "Got restartPreview preview message");
             restartPreviewAndDecode();
         } else if (message.what == R.id.decode_succeeded) {
             Log.d(TAG, "Got decode succeeded message");
+            if (state != State.PREVIEW) {
+                return;
+            }
             state = State.SUCCESS;
+            workerPool.setDecoding(false);
+            // The other workers have been cancelled, they don't need new frames.
+            CameraManager.get().clearPreviewFrameRequests();
             Bundle bundle = message.getData();
             Bitmap barcode = null;
             long time = 0;
@@ -82,35 +104,90 @@ public final class DecodeCaptureViewHandler extends Handler {
                     barcode = (Bitmap) bundle.getParcelable(DecodeThread.BARCODE_BITMAP);
                 if (bundle.containsKey(DecodeThread.DERCODE_TIME))
                     time = bundle.getLong(DecodeThread.DERCODE_TIME, time);
+                recordDispatch(bundle);
             }
             scanInterface.handleDecode((Result) message.obj, barcode, time);
+        } else if (message.what == R.id.decode_multiple_succeeded) {
+            Log.d(TAG, "Got decode multiple succeeded message");
+            if (state != State.PREVIEW) {
+                return;
+            }
+            Bundle bundle = message.getData();
+            Bitmap barcode = null;
+            long time = 0;
+            if (bundle != null) {
+                barcode = (Bitmap) bundle.getParcelable(DecodeThread.BARCODE_BITMAP);
+                time = bundle.getLong(DecodeThread.DERCODE_TIME, time);
+                recordDispatch(bundle);
+            }
+            if (!scanInterface.handleDecodeMultiple((Result[]) message.obj, barcode, time)) {
+                state = State.SUCCESS;
+                workerPool.setDecoding(false);
+                workerPool.cancel();
+                CameraManager.get().clearPreviewFrameRequests();
+            }
+        } else if (message.what == R.id.camera_error) {
+            Log.d(TAG, "Got camera error message");
+            if (state == State.DONE) {
+                return;
+            }
+            // No frames are coming any more; the workers are idle until the camera reopens.
+            state = State.DONE;
+            workerPool.setDecoding(false);
+            workerPool.cancel();
+            scanInterface.onCameraError();
         } else if (message.what == R.id.decode_failed) {
-            // We're decoding as fast as possible, so when one decode fails, start another.
-            state = State.PREVIEW;
-            CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
+            // We're decoding as fast as possible, so when one decode fails, hand the worker
+            // that reported it the next frame.
+            if (state == State.PREVIEW) {
+                CameraManager.get().requestPreviewFrame((Handler) message.obj, R.id.decode);
+            }
         }
     }
 
     public void quitSynchronously() {
         state = State.DONE;
+        workerPool.setDecoding(false);
+        scanInterface.getFrameFunnel().stop();
+        CameraManager.get().setCameraErrorHandler(null, 0);
         CameraManager.get().stopPreview();
-        Message quit = Message.obtain(decodeThread.getHandler(), R.id.decode_quit);
-        quit.sendToTarget();
-        try {
-            decodeThread.join();
-        } catch (InterruptedException e) {
-            // continue
-        }
+        workerPool.quitSynchronously();
         // Be absolutely sure we don't send any queued up messages
         removeMessages(R.id.decode_succeeded);
+        removeMessages(R.id.decode_multiple_succeeded);
         removeMessages(R.id.decode_failed);
+        removeMessages(R.id.adjust_frame_rate);
+        removeMessages(R.id.camera_error);
+    }
+
+    /**
+     * @return frames of this session that were not decoded because the scene had not changed
+     */
+    public long getSkippedFrameCount() {
+        return workerPool.getSceneChangeDetector().getSkippedFrameCount();
+    }
+
+    private void recordDispatch(Bundle bundle) {
+        if (bundle.containsKey(DecodeThread.DISPATCH_NANOS)) {
+            scanInterface.getScanMetrics().record(ScanMetrics.Stage.DISPATCH,
+                    System.nanoTime() - bundle.getLong(DecodeThread.DISPATCH_NANOS));
+        }
     }
 
     public void restartPreviewAndDecode() {
         if (state == State.SUCCESS) {
             state = State.PREVIEW;
-            CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
+            workerPool.setDecoding(true);
+            for (int i = 0; i < workerPool.getWorkerCount(); i++) {
+                CameraManager.get().requestPreviewFrame(workerPool.getHandler(i), R.id.decode);
+            }
             CameraManager.get().requestAutoFocus(this, R.id.auto_focus);
+            if (frameRateGovernor != null) {
+                // A new scan starts with the camera's default fps range.
+                frameRateGovernor.start();
+                removeMessages(R.id.adjust_frame_rate);
+                sendEmptyMessageDelayed(R.id.adjust_frame_rate, FrameRateGovernor.INTERVAL_MS);
+            }
             scanInterface.onDrawViewfinder();
         }
     }
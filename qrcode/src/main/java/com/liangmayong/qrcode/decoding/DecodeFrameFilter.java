@@ -0,0 +1,33 @@
+package com.liangmayong.qrcode.decoding;
+
+import android.graphics.Rect;
+
+import com.liangmayong.qrcode.camera.PreviewFrame;
+
+/**
+ * A cheap check that runs on the decode thread before a preview frame is decoded, right after the
+ * {@link DecodeInterceptor} and the {@link FrameStage.Phase#GATE} stages of the {@link FramePipeline}.
+ * Frames it rejects are dropped and the worker asks the camera for the next one straight away.
+ * <p>
+ * A filter that would rather read a byte[] extends {@link DecodeFrameFilterAdapter}.
+ */
+public interface DecodeFrameFilter {
+
+    /**
+     * Called for every preview frame the interceptor and gate stages let through, possibly from
+     * several decode threads at once. The frame is handed back to the camera afterwards, so
+     * neither it nor its buffer may be kept beyond this call. Read it in place, e.g. with
+     * {@link PreviewFrame#getLuminance(int, int)}, so a frame in a buffer is not copied.
+     *
+     * @param frame       the unrotated preview frame
+     * @param framingRect the framing rect in the coordinates of the unrotated frame
+     * @return true to decode the frame, false to skip it
+     */
+    boolean accept(PreviewFrame frame, Rect framingRect);
+
+    /**
+     * Called on the main thread when a scan session starts, before the first frame, so state
+     * learned from the frames of an earlier session can be dropped.
+     */
+    void reset();
+}
@@ -0,0 +1,45 @@
+package com.liangmayong.qrcode.decoding;
+
+import android.graphics.Rect;
+
+import com.liangmayong.qrcode.camera.PreviewFrame;
+
+/**
+ * A {@link DecodeFrameFilter} for checks written against a byte[]: the frame is handed to
+ * {@link #accept(byte[], int, int, Rect)} as an array, and {@link #reset()} does nothing unless
+ * overridden. A frame the camera delivers in a buffer is copied for it, into an array each decode
+ * thread keeps for the next frame; override {@link #accept(PreviewFrame, Rect)} to avoid the copy.
+ */
+public abstract class DecodeFrameFilterAdapter implements DecodeFrameFilter {
+
+    private final ThreadLocal<byte[]> copies = new ThreadLocal<byte[]>();
+
+    /**
+     * @param data        the unrotated preview frame, Y plane first with rows as wide as the
+     *                    frame; it may be longer than width * height
+     * @param width       the width of the preview frame
+     * @param height      the height of the preview frame
+     * @param framingRect the framing rect in the coordinates of the unrotated frame
+     * @return true to decode the frame, false to skip it
+     */
+    public abstract boolean accept(byte[] data, int width, int height, Rect framingRect);
+
+    @Override
+    public boolean accept(PreviewFrame frame, Rect framingRect) {
+        byte[] data = frame.getData();
+        if (data == null) {
+            int size = frame.getWidth() * frame.getHeight();
+            data = copies.get();
+            if (data == null || data.length < size) {
+                data = new byte[size];
+                copies.set(data);
+            }
+            frame.copyLuminance(data);
+        }
+        return accept(data, frame.getWidth(), frame.getHeight(), framingRect);
+    }
+
+    @Override
+    public void reset() {
+    }
+}
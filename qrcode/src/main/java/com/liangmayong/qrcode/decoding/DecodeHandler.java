@@ -17,41 +17,74 @@
 package com.liangmayong.qrcode.decoding;
 
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
-import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.Result;
-import com.google.zxing.common.GlobalHistogramBinarizer;
-import com.google.zxing.common.HybridBinarizer;
 import com.liangmayong.qrcode.R;
 import com.liangmayong.qrcode.camera.CameraManager;
-import com.liangmayong.qrcode.camera.PlanarYUVLuminanceSource;
+import com.liangmayong.qrcode.camera.DownsampledLuminanceSource;
+import com.liangmayong.qrcode.camera.FrameBufferPool;
+import com.liangmayong.qrcode.camera.InvertingLuminanceSource;
+import com.liangmayong.qrcode.camera.PreviewFrame;
+import com.liangmayong.qrcode.camera.RotatedPlanarYUVLuminanceSource;
+import com.liangmayong.qrcode.camera.ThumbnailRenderer;
 
 import java.util.Hashtable;
 
 final class DecodeHandler extends Handler {
 
     private static final String TAG = DecodeHandler.class.getSimpleName();
+    /**
+     * Coarse-only frames in a row in pyramid mode before one frame is decoded at full resolution.
+     */
+    private static final int PYRAMID_FULL_PASS_INTERVAL = 4;
 
     private final DecodeScanInterface scanInterface;
-    private final MultiFormatReader multiFormatReader;
+    private final DecodeWorkerPool workerPool;
+    private final FrameDecoder frameDecoder;
+    private final ScanMetrics metrics;
+    private final FrameFunnel funnel;
+    private final FramePipeline pipeline;
+    private final FrameDescriptor frameDescriptor;
+    private final RegionOfInterestTracker.PointCollector pointCollector;
+    private final FrameBufferPool bufferPool;
+    private final int[] sceneSignature = SceneChangeDetector.newSignature();
+    private final ThumbnailRenderer thumbnailRenderer = new ThumbnailRenderer(ThumbnailRenderer.DEFAULT_MAX_SIZE);
+    private int coarseFrameCount;
 
-    DecodeHandler(DecodeScanInterface activity, Hashtable<DecodeHintType, Object> hints) {
-        multiFormatReader = new MultiFormatReader();
-        multiFormatReader.setHints(hints);
+    DecodeHandler(DecodeScanInterface activity, DecodeWorkerPool workerPool,
+                  Hashtable<DecodeHintType, Object> hints,
+                  RegionOfInterestTracker.PointCollector pointCollector, FrameBufferPool bufferPool) {
         this.scanInterface = activity;
+        this.workerPool = workerPool;
+        this.metrics = activity.getScanMetrics();
+        this.funnel = activity.getFrameFunnel();
+        this.pipeline = activity.getFramePipeline();
+        this.frameDecoder = new FrameDecoder(activity.getDecodeOptions(), metrics, funnel, workerPool, hints,
+                bufferPool);
+        this.pointCollector = pointCollector;
+        this.bufferPool = bufferPool;
+        this.frameDescriptor = new FrameDescriptor(bufferPool);
     }
 
     @Override
     public void handleMessage(Message message) {
         if (message.what == R.id.decode) {
-            decode((byte[]) message.obj, message.arg1, message.arg2);
+            // Only the newest frame is worth decoding; the ones before it were recycled.
+            PreviewFrame frame = CameraManager.get().takePreviewFrame();
+            if (frame == null) {
+                // Another worker took it first.
+                requestNextFrame();
+            } else {
+                decode(frame);
+            }
         } else if (message.what == R.id.decode_quit) {
             Looper.myLooper().quit();
         }
@@ -59,66 +92,294 @@ final class DecodeHandler extends Handler {
 
     /**
      * Decode the data within the viewfinder rectangle, and time how long it took. For efficiency,
-     * reuse the same reader objects from one decode to the next.
+     * reuse the same reader objects and the matrix buffer from one decode to the next.
      *
-     * @param data   The YUV preview frame.
-     * @param width  The width of the preview frame.
-     * @param height The height of the preview frame.
+     * @param frame The unrotated preview frame.
      */
-    private void decode(byte[] data, int width, int height) {
+    private void decode(PreviewFrame frame) {
+        long start = System.nanoTime();
+        try {
+            decodeFrame(frame);
+        } finally {
+            funnel.recordBusy(System.nanoTime() - start);
+            frameDescriptor.release();
+            // The frame goes back to the camera's buffer ring.
+            CameraManager.get().releasePreviewFrame(frame);
+        }
+    }
+
+    private void decodeFrame(PreviewFrame previewFrame) {
+        Rect frameRect = CameraManager.get().getFramingRectInPreviewFrame();
+        // The source reads the framing rect straight out of the unrotated frame, so only the
+        // cropped luminance matrix needs a buffer.
+        Rect rect = CameraManager.get().getFramingRectInPreview();
+        FrameDescriptor frame = frameDescriptor;
+        frame.reset(previewFrame, rect, frameRect);
+        int width = previewFrame.getWidth();
+        int height = previewFrame.getHeight();
         if (scanInterface.getDecodeInterceptor() != null) {
-            boolean flag = scanInterface.getDecodeInterceptor().onDecode(data, width, height);
+            boolean flag = scanInterface.getDecodeInterceptor().onDecode(frame.getData(), width, height);
             if (flag) {
+                funnel.recordIntercepted();
                 return;
             }
         }
-        long start = System.currentTimeMillis();
-        Result rawResult = null;
-
-        //modify here
-        byte[] rotatedData = new byte[data.length];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++)
-                rotatedData[x * height + height - y - 1] = data[x + y * width];
+        if (!pipeline.run(FrameStage.Phase.GATE, frame)) {
+            funnel.recordSkipped();
+            requestNextFrame();
+            return;
+        }
+        DecodeFrameFilter frameFilter = scanInterface.getDecodeFrameFilter();
+        if (frameFilter != null && !frameFilter.accept(previewFrame, frameRect)) {
+            funnel.recordSkipped();
+            requestNextFrame();
+            return;
+        }
+        SceneChangeDetector sceneChangeDetector = null;
+        if (scanInterface.getDecodeOptions().isStaticSceneGating()) {
+            sceneChangeDetector = workerPool.getSceneChangeDetector();
+            if (!sceneChangeDetector.shouldDecode(previewFrame, frameRect, sceneSignature)) {
+                funnel.recordSkipped();
+                requestNextFrame();
+                return;
+            }
+        }
+        if (!pipeline.run(FrameStage.Phase.REGION, frame)) {
+            funnel.recordSkipped();
+            requestNextFrame();
+            return;
+        }
+        boolean multiple = scanInterface.getDecodeOptions().isMultipleBarcodeDecoding();
+        // A region of interest only ever holds one code, and a region chosen by a stage is not
+        // the tracker's to learn from.
+        Rect region = frame.getRegion();
+        int maxRegionMisses = multiple || region != null ? 0
+                : scanInterface.getDecodeOptions().getRegionOfInterestMaxMisses();
+        RegionOfInterestTracker regionTracker = workerPool.getRegionOfInterestTracker();
+        if (maxRegionMisses > 0) {
+            region = regionTracker.getRegion(rect.width(), rect.height());
+            frame.setDecodeRegion(region);
+        }
+        Rect decodeRect = rect;
+        if (region != null) {
+            decodeRect = new Rect(region);
+            decodeRect.offset(rect.left, rect.top);
         }
-        int tmp = width; // Here we are swapping, that's the difference to #11
-        width = height;
-        height = tmp;
+        InversionScheduler inversionScheduler = workerPool.getInversionScheduler();
+        frame.setInverted(inversionScheduler.shouldInvert(scanInterface.getDecodeOptions().getInvertedDecodeInterval()));
+        if (!pipeline.run(FrameStage.Phase.ENHANCE, frame)) {
+            funnel.recordSkipped();
+            requestNextFrame();
+            return;
+        }
+        boolean inverted = frame.isInverted();
+        long start = System.nanoTime();
+        long deadlineMillis = scanInterface.getDecodeOptions().getFrameDeadlineMillis();
+        DecodeCancellation cancellation = new DecodeCancellation(workerPool, workerPool.getGeneration(),
+                workerPool.claimFrameDeadline(deadlineMillis), start + deadlineMillis * 1000000L);
 
-        PlanarYUVLuminanceSource source = CameraManager.get().buildLuminanceSource(rotatedData, width, height);
-        BinaryBitmap binaryBitmap;
+        byte[] matrix = bufferPool.acquire(rect.width() * rect.height());
+        byte[] invertedMatrix = null;
         try {
-            binaryBitmap = new BinaryBitmap(new GlobalHistogramBinarizer(source));
-            rawResult = multiFormatReader.decodeWithState(binaryBitmap);
-        } catch (Exception re) {
-            // continue
-            try {
-                binaryBitmap = new BinaryBitmap(new HybridBinarizer(source));
-                rawResult = multiFormatReader.decodeWithState(binaryBitmap);
-            } catch (Exception e) {
+            RotatedPlanarYUVLuminanceSource source =
+                    CameraManager.get().buildRotatedLuminanceSource(previewFrame, decodeRect, matrix);
+            // Rotate the crop once up front, every binarizer attempt then reads the matrix.
+            long cropStart = System.nanoTime();
+            source.getMatrix();
+            metrics.record(ScanMetrics.Stage.ROTATE_CROP, System.nanoTime() - cropStart);
+            pointCollector.startFrame(region);
+            LuminanceSource decodeSource = source;
+            if (inverted) {
+                // Inverted on the fly, and only if a pass reads the full resolution matrix.
+                invertedMatrix = bufferPool.acquire(source.getWidth() * source.getHeight());
+                decodeSource = new InvertingLuminanceSource(source, invertedMatrix);
+            }
+            if (multiple) {
+                decodeMultiple(source, decodeSource, inverted, cancellation, sceneChangeDetector, start);
+                return;
+            }
+            Result rawResult = null;
+            boolean fullPass = true;
+            int pyramidScale = scanInterface.getDecodeOptions().getPyramidScale();
+            if (pyramidScale > 1 && region == null && coarseFrameCount < PYRAMID_FULL_PASS_INTERVAL) {
+                coarseFrameCount++;
+                rawResult = decodeCoarse(source, pyramidScale, inverted, cancellation);
+                // Finder patterns but no code: the code is there, but too fine for the coarse pass.
+                fullPass = rawResult == null && !cancellation.isCancelled()
+                        && pointCollector.getPointCount() > 0;
+            } else {
+                // Now and then the full resolution pass also looks for codes too small to show
+                // up in the coarse pass at all.
+                coarseFrameCount = 0;
+            }
+            if (fullPass) {
+                pointCollector.setScale(1);
+                rawResult = frameDecoder.decode(decodeSource, cancellation);
+            }
+            if (rawResult != null) {
+                Result[] results = postProcess(frame, new Result[]{rawResult});
+                rawResult = results.length > 0 ? results[0] : null;
+            }
+            // A frame that ran out of time counts as a miss; a superseded one counts for nothing.
+            boolean superseded = cancellation.isSuperseded();
+            if (maxRegionMisses > 0 && !superseded) {
+                regionTracker.onFrameDecoded(pointCollector, rawResult != null, rect.width(),
+                        rect.height(), maxRegionMisses);
+            }
+            if (sceneChangeDetector != null && !superseded) {
+                sceneChangeDetector.onDecodeFinished(rawResult != null);
+            }
+            if (!superseded) {
+                inversionScheduler.onDecodeFinished(inverted, rawResult != null);
+            }
+            if (rawResult != null || !superseded) {
+                metrics.record(ScanMetrics.Stage.FRAME, System.nanoTime() - start);
+                funnel.recordDecoded(rawResult != null);
+                onFrameFinished(rawResult == null && cancellation.isTimedOut());
+            } else {
+                funnel.recordCancelled();
+            }
+
+            if (rawResult != null && scanInterface.getDecodeOptions().isContinuousScanning()) {
+                // Keep every worker going, the capture handler drops repeated codes.
+                streamResults(new Result[]{rawResult}, source, start);
+                requestNextFrame();
+            } else if (rawResult != null) {
+                if (!workerPool.claimSuccess(cancellation.getGeneration())) {
+                    // Another worker already found the code.
+                    return;
+                }
+                long time = (System.nanoTime() - start) / 1000000L;
+                Log.d(TAG, "Found barcode (" + time + " ms):\n" + rawResult.toString());
+                Log.d(TAG, "Found barcode Format:\n" + rawResult.getBarcodeFormat().name());
+                Message message = Message.obtain(scanInterface.getHandler(), R.id.decode_succeeded, rawResult);
+                message.setData(createResultBundle(source, time));
+                message.sendToTarget();
+            } else if (!superseded) {
+                requestNextFrame();
             }
         } finally {
-            multiFormatReader.reset();
+            // Racers that lost still read the matrix and the frame until they notice.
+            frameDecoder.awaitRacers();
+            bufferPool.release(invertedMatrix);
+            bufferPool.release(matrix);
         }
+    }
 
-        if (rawResult != null) {
-            long end = System.currentTimeMillis();
-            long time = end - start;
-            Log.d(TAG, "Found barcode (" + time + " ms):\n" + rawResult.toString());
-            Log.d(TAG, "Found barcode Format:\n" + rawResult.getBarcodeFormat().name());
-            Message message = Message.obtain(scanInterface.getHandler(), R.id.decode_succeeded, rawResult);
-            Bundle bundle = new Bundle();
-            Bitmap bitmap = source.renderCroppedGreyscaleBitmap();
+    /**
+     * Streams every code in the frame to the capture handler and keeps the worker going; the
+     * other workers are not cancelled.
+     */
+    private void decodeMultiple(RotatedPlanarYUVLuminanceSource source, LuminanceSource decodeSource,
+                                boolean inverted, DecodeCancellation cancellation,
+                                SceneChangeDetector sceneChangeDetector, long start) {
+        Result[] results = frameDecoder.decodeMultiple(decodeSource, cancellation);
+        if (cancellation.isSuperseded()) {
+            funnel.recordCancelled();
+            return;
+        }
+        if (results.length > 0) {
+            results = postProcess(frameDescriptor, results);
+        }
+        onFrameFinished(results.length == 0 && cancellation.isTimedOut());
+        if (sceneChangeDetector != null) {
+            sceneChangeDetector.onDecodeFinished(results.length > 0);
+        }
+        workerPool.getInversionScheduler().onDecodeFinished(inverted, results.length > 0);
+        metrics.record(ScanMetrics.Stage.FRAME, System.nanoTime() - start);
+        funnel.recordDecoded(results.length > 0);
+        if (results.length > 0) {
+            streamResults(results, source, start);
+        }
+        requestNextFrame();
+    }
+
+    /**
+     * Runs the POST stages on the codes found in a frame.
+     *
+     * @return the results the stages kept, empty if a stage rejected the frame
+     */
+    private Result[] postProcess(FrameDescriptor frame, Result[] results) {
+        if (pipeline.isEmpty(FrameStage.Phase.POST)) {
+            return results;
+        }
+        frame.setResults(results);
+        if (!pipeline.run(FrameStage.Phase.POST, frame) || frame.getResults() == null) {
+            return new Result[0];
+        }
+        return frame.getResults();
+    }
+
+    /**
+     * Hands results to the capture handler without ending the scan session. A code held in view
+     * is reported once per time window, not once per frame.
+     */
+    private void streamResults(Result[] results, RotatedPlanarYUVLuminanceSource source, long start) {
+        results = workerPool.getResultCache().filter(results, System.currentTimeMillis());
+        if (results.length == 0) {
+            return;
+        }
+        long time = (System.nanoTime() - start) / 1000000L;
+        Log.d(TAG, "Found " + results.length + " barcodes (" + time + " ms)");
+        Message message = Message.obtain(scanInterface.getHandler(), R.id.decode_multiple_succeeded, results);
+        message.setData(createResultBundle(source, time));
+        message.sendToTarget();
+    }
+
+    private Bundle createResultBundle(RotatedPlanarYUVLuminanceSource source, long time) {
+        Bundle bundle = new Bundle();
+        if (scanInterface.getDecodeOptions().isResultThumbnail()) {
+            // The thumbnail is rendered before the matrix buffer goes back to the pool.
+            long renderStart = System.nanoTime();
+            Bitmap bitmap = source.renderCroppedGreyscaleBitmap(thumbnailRenderer);
+            metrics.record(ScanMetrics.Stage.THUMBNAIL, System.nanoTime() - renderStart);
             if (bitmap != null) {
                 bundle.putParcelable(DecodeThread.BARCODE_BITMAP, bitmap);
             }
-            bundle.putLong(DecodeThread.DERCODE_TIME, time);
-            message.setData(bundle);
-            message.sendToTarget();
-        } else {
-            Message message = Message.obtain(scanInterface.getHandler(), R.id.decode_failed);
-            message.sendToTarget();
         }
+        bundle.putLong(DecodeThread.DERCODE_TIME, time);
+        bundle.putLong(DecodeThread.DISPATCH_NANOS, System.nanoTime());
+        return bundle;
+    }
+
+    private Result decodeCoarse(RotatedPlanarYUVLuminanceSource source, int scale, boolean inverted,
+                                DecodeCancellation cancellation) {
+        int size = DownsampledLuminanceSource.getScaledSize(source.getWidth(), source.getHeight(), scale);
+        byte[] buffer = bufferPool.acquire(size);
+        byte[] invertedBuffer = null;
+        try {
+            pointCollector.setScale(scale);
+            long downsampleStart = System.nanoTime();
+            LuminanceSource coarseSource = new DownsampledLuminanceSource(source, scale, buffer);
+            metrics.record(ScanMetrics.Stage.DOWNSAMPLE, System.nanoTime() - downsampleStart);
+            if (inverted) {
+                // Downsample first, so only the small image is inverted.
+                invertedBuffer = bufferPool.acquire(size);
+                coarseSource = new InvertingLuminanceSource(coarseSource, invertedBuffer);
+            }
+            return frameDecoder.decode(coarseSource, cancellation);
+        } finally {
+            frameDecoder.awaitRacers();
+            bufferPool.release(invertedBuffer);
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void onFrameFinished(boolean timedOut) {
+        workerPool.onFrameFinished(timedOut);
+        if (timedOut) {
+            funnel.recordTimedOut();
+        }
+    }
+
+    private void requestNextFrame() {
+        // Wait for the next frame right here, without a round trip through the main looper.
+        if (workerPool.isDecoding() && CameraManager.get().requestLatestPreviewFrame(this, R.id.decode)) {
+            return;
+        }
+        // Tell the capture handler which worker is idle again.
+        Message message = Message.obtain(scanInterface.getHandler(), R.id.decode_failed, this);
+        message.sendToTarget();
     }
 
 }
@@ -5,5 +5,17 @@ package com.liangmayong.qrcode.decoding;
  */
 
 public interface DecodeInterceptor {
+
+    /**
+     * Called on the decode thread before a preview frame is decoded, ahead of every stage of the
+     * {@link FramePipeline}. The frame buffer is handed back to the camera afterwards, so it must
+     * not be kept beyond this call.
+     *
+     * @param data   the unrotated preview frame; a copy if the camera backend delivers frames in a
+     *               buffer, so prefer a {@link FrameStage} there
+     * @param width  the width of the preview frame
+     * @param height the height of the preview frame
+     * @return true to skip decoding this frame
+     */
     boolean onDecode(byte[] data, int width, int height);
 }
@@ -0,0 +1,406 @@
+package com.liangmayong.qrcode.decoding;
+
+/**
+ * Tuning knobs of the live decode loop. The scan view owns one instance and hands it to the
+ * decode workers through {@link DecodeScanInterface#getDecodeOptions()}; values are read when a
+ * scan session starts unless noted otherwise.
+ */
+public final class DecodeOptions {
+
+    /**
+     * One worker per spare core, leaving one core for the UI and the camera, capped at four
+     * because more concurrent decodes only fight over the few frames the camera delivers.
+     */
+    public static final int DEFAULT_DECODE_WORKER_COUNT =
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+
+    /**
+     * Failed decodes of a region of interest before the whole framing rect is decoded again.
+     */
+    public static final int DEFAULT_REGION_OF_INTEREST_MAX_MISSES = 3;
+
+    /**
+     * Frames in a row without a result before a frame is decoded inverted.
+     */
+    public static final int DEFAULT_INVERTED_DECODE_INTERVAL = 3;
+
+    /**
+     * Time budget of one frame's decode.
+     */
+    public static final long DEFAULT_FRAME_DEADLINE_MILLIS = 400L;
+
+    /**
+     * Distinct codes remembered by the result cache of continuous and multiple barcode scanning.
+     */
+    public static final int DEFAULT_RESULT_CACHE_CAPACITY = 256;
+
+    /**
+     * How long a code stays reported before it is reported again.
+     */
+    public static final long DEFAULT_RESULT_CACHE_TTL_MILLIS = 5000L;
+
+    private volatile int decodeWorkerCount = DEFAULT_DECODE_WORKER_COUNT;
+    private volatile boolean binarizerRacing = false;
+    private volatile boolean invertedBinarizerRacing = false;
+    private volatile boolean persistDecodeStatistics = false;
+    private volatile boolean staticSceneGating = false;
+    private volatile int regionOfInterestMaxMisses = DEFAULT_REGION_OF_INTEREST_MAX_MISSES;
+    private volatile int invertedDecodeInterval = DEFAULT_INVERTED_DECODE_INTERVAL;
+    private volatile long frameDeadlineMillis = DEFAULT_FRAME_DEADLINE_MILLIS;
+    private volatile int pyramidScale = 1;
+    private volatile boolean multipleBarcodeDecoding = false;
+    private volatile boolean continuousScanning = false;
+    private volatile int resultCacheCapacity = DEFAULT_RESULT_CACHE_CAPACITY;
+    private volatile long resultCacheTtlMillis = DEFAULT_RESULT_CACHE_TTL_MILLIS;
+    private volatile boolean adaptiveFrameRate = true;
+    private volatile boolean resultThumbnail = true;
+
+    /**
+     * getDecodeWorkerCount
+     *
+     * @return number of decode workers
+     */
+    public int getDecodeWorkerCount() {
+        return decodeWorkerCount;
+    }
+
+    /**
+     * setDecodeWorkerCount
+     *
+     * @param decodeWorkerCount number of threads decoding preview frames in parallel, at least 1
+     */
+    public void setDecodeWorkerCount(int decodeWorkerCount) {
+        if (decodeWorkerCount < 1) {
+            throw new IllegalArgumentException("At least one decode worker is needed: " + decodeWorkerCount);
+        }
+        this.decodeWorkerCount = decodeWorkerCount;
+    }
+
+    /**
+     * isBinarizerRacing
+     *
+     * @return whether the binarizers race each other on every frame
+     */
+    public boolean isBinarizerRacing() {
+        return binarizerRacing;
+    }
+
+    /**
+     * setBinarizerRacing
+     * <p>
+     * Runs the global histogram and hybrid binarizers in parallel on each frame instead of one
+     * after the other. The first result wins and the slower attempt is abandoned. Cuts the
+     * latency of hard frames on multi-core devices at the cost of extra CPU. Read per frame.
+     *
+     * @param binarizerRacing binarizerRacing default = false
+     */
+    public void setBinarizerRacing(boolean binarizerRacing) {
+        this.binarizerRacing = binarizerRacing;
+    }
+
+    /**
+     * isInvertedBinarizerRacing
+     *
+     * @return whether an inverted-luminance attempt joins the race
+     */
+    public boolean isInvertedBinarizerRacing() {
+        return invertedBinarizerRacing;
+    }
+
+    /**
+     * setInvertedBinarizerRacing
+     * <p>
+     * Adds a third racer that decodes the inverted frame, for white-on-black codes. Only used
+     * together with {@link #setBinarizerRacing(boolean)}, and skipped on frames the inverted
+     * decode interval already decodes inverted. Read per frame.
+     *
+     * @param invertedBinarizerRacing invertedBinarizerRacing default = false
+     */
+    public void setInvertedBinarizerRacing(boolean invertedBinarizerRacing) {
+        this.invertedBinarizerRacing = invertedBinarizerRacing;
+    }
+
+    /**
+     * isPersistDecodeStatistics
+     *
+     * @return whether the learned decode order is kept across sessions
+     */
+    public boolean isPersistDecodeStatistics() {
+        return persistDecodeStatistics;
+    }
+
+    /**
+     * setPersistDecodeStatistics
+     * <p>
+     * Saves the {@link DecodeStatistics} in the app's shared preferences when the scan view is
+     * paused and restores them when it is resumed, so a new session starts with the binarizer and
+     * format order learned on this device.
+     *
+     * @param persistDecodeStatistics persistDecodeStatistics default = false
+     */
+    public void setPersistDecodeStatistics(boolean persistDecodeStatistics) {
+        this.persistDecodeStatistics = persistDecodeStatistics;
+    }
+
+    /**
+     * isStaticSceneGating
+     *
+     * @return whether unchanged scenes are decoded less often
+     */
+    public boolean isStaticSceneGating() {
+        return staticSceneGating;
+    }
+
+    /**
+     * setStaticSceneGating
+     * <p>
+     * Once a decode has found nothing, frames showing the same scene are only decoded about once
+     * a second until the scene changes. Saves battery when the camera is left pointing at
+     * something that is not a barcode. Read per frame.
+     *
+     * @param staticSceneGating staticSceneGating default = false
+     */
+    public void setStaticSceneGating(boolean staticSceneGating) {
+        this.staticSceneGating = staticSceneGating;
+    }
+
+    /**
+     * getRegionOfInterestMaxMisses
+     *
+     * @return failed region decodes before the whole framing rect is decoded again, 0 if off
+     */
+    public int getRegionOfInterestMaxMisses() {
+        return regionOfInterestMaxMisses;
+    }
+
+    /**
+     * setRegionOfInterestMaxMisses
+     * <p>
+     * When a frame shows finder pattern candidates but no code, the next frames decode only a
+     * padded box around the candidates, which is much faster than the whole framing rect. After
+     * this many failed decodes of the box the whole framing rect is decoded again. 0 turns region
+     * of interest decoding off. Read per frame.
+     *
+     * @param regionOfInterestMaxMisses regionOfInterestMaxMisses default = 3
+     */
+    public void setRegionOfInterestMaxMisses(int regionOfInterestMaxMisses) {
+        if (regionOfInterestMaxMisses < 0) {
+            throw new IllegalArgumentException("Miss count must not be negative: " + regionOfInterestMaxMisses);
+        }
+        this.regionOfInterestMaxMisses = regionOfInterestMaxMisses;
+    }
+
+    /**
+     * getFrameDeadlineMillis
+     *
+     * @return time budget of one frame's decode, 0 if there is none
+     */
+    public long getFrameDeadlineMillis() {
+        return frameDeadlineMillis;
+    }
+
+    /**
+     * setFrameDeadlineMillis
+     * <p>
+     * A frame still being decoded after this long is abandoned at the next safe point, so a
+     * newer frame gets its turn and the time a frame can hold a worker is bounded. After three
+     * frames in a row ran out of time, one frame is decoded without a limit, so a code that is
+     * always slow to decode is still read. 0 turns the budget off. Read per frame.
+     *
+     * @param frameDeadlineMillis frameDeadlineMillis default = 400
+     */
+    public void setFrameDeadlineMillis(long frameDeadlineMillis) {
+        if (frameDeadlineMillis < 0) {
+            throw new IllegalArgumentException("Deadline must not be negative: " + frameDeadlineMillis);
+        }
+        this.frameDeadlineMillis = frameDeadlineMillis;
+    }
+
+    /**
+     * getInvertedDecodeInterval
+     *
+     * @return frames without a result before a frame is decoded inverted, 0 if never
+     */
+    public int getInvertedDecodeInterval() {
+        return invertedDecodeInterval;
+    }
+
+    /**
+     * setInvertedDecodeInterval
+     * <p>
+     * Light codes on a dark background only decode with black and white swapped. After this many
+     * frames in a row decoded without a result, the next frame is decoded inverted; 1 alternates
+     * normal and inverted frames, 0 never inverts. Once an inverted frame finds a code, inverted
+     * frames become the norm and normal ones are tried at the same interval. Read per frame.
+     *
+     * @param invertedDecodeInterval invertedDecodeInterval default = 3
+     */
+    public void setInvertedDecodeInterval(int invertedDecodeInterval) {
+        if (invertedDecodeInterval < 0) {
+            throw new IllegalArgumentException("Interval must not be negative: " + invertedDecodeInterval);
+        }
+        this.invertedDecodeInterval = invertedDecodeInterval;
+    }
+
+    /**
+     * getPyramidScale
+     *
+     * @return downsampling factor of the coarse decode pass, 1 if there is none
+     */
+    public int getPyramidScale() {
+        return pyramidScale;
+    }
+
+    /**
+     * setPyramidScale
+     * <p>
+     * Decodes frames at half (2) or quarter (4) resolution first. The full resolution crop is only
+     * decoded when the coarse pass saw finder patterns but no code, and on every fifth frame so
+     * that codes too small for the coarse pass are still found. Fast for large, near codes. Read
+     * per frame.
+     *
+     * @param pyramidScale pyramidScale 1, 2 or 4, default = 1
+     */
+    public void setPyramidScale(int pyramidScale) {
+        if (pyramidScale != 1 && pyramidScale != 2 && pyramidScale != 4) {
+            throw new IllegalArgumentException("Pyramid scale must be 1, 2 or 4: " + pyramidScale);
+        }
+        this.pyramidScale = pyramidScale;
+    }
+
+    /**
+     * isMultipleBarcodeDecoding
+     *
+     * @return whether every code in a frame is reported
+     */
+    public boolean isMultipleBarcodeDecoding() {
+        return multipleBarcodeDecoding;
+    }
+
+    /**
+     * setMultipleBarcodeDecoding
+     * <p>
+     * Looks for all codes in each frame instead of the first one and keeps scanning after a
+     * frame with codes, so one sweep over a label with several codes reports all of them.
+     * Read per frame.
+     *
+     * @param multipleBarcodeDecoding multipleBarcodeDecoding default = false
+     */
+    public void setMultipleBarcodeDecoding(boolean multipleBarcodeDecoding) {
+        this.multipleBarcodeDecoding = multipleBarcodeDecoding;
+    }
+
+    /**
+     * isContinuousScanning
+     *
+     * @return whether scanning goes on after a code was found
+     */
+    public boolean isContinuousScanning() {
+        return continuousScanning;
+    }
+
+    /**
+     * setContinuousScanning
+     * <p>
+     * Keeps the camera and the decode workers running after a code was found, and reports each
+     * code once per {@link #setResultCacheTtlMillis(long) time window} for as long as it is in
+     * view. Read per frame.
+     *
+     * @param continuousScanning continuousScanning default = false
+     */
+    public void setContinuousScanning(boolean continuousScanning) {
+        this.continuousScanning = continuousScanning;
+    }
+
+    /**
+     * getResultCacheCapacity
+     *
+     * @return number of distinct codes the result cache remembers
+     */
+    public int getResultCacheCapacity() {
+        return resultCacheCapacity;
+    }
+
+    /**
+     * setResultCacheCapacity
+     * <p>
+     * Number of distinct codes remembered when results are streamed. When the cache is full the
+     * code seen least recently is forgotten, and is reported again if it shows up.
+     *
+     * @param resultCacheCapacity resultCacheCapacity default = 256
+     */
+    public void setResultCacheCapacity(int resultCacheCapacity) {
+        if (resultCacheCapacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be positive: " + resultCacheCapacity);
+        }
+        this.resultCacheCapacity = resultCacheCapacity;
+    }
+
+    /**
+     * getResultCacheTtlMillis
+     *
+     * @return time before a streamed code is reported again
+     */
+    public long getResultCacheTtlMillis() {
+        return resultCacheTtlMillis;
+    }
+
+    /**
+     * setResultCacheTtlMillis
+     * <p>
+     * How long after being reported a code is suppressed when it is seen again.
+     *
+     * @param resultCacheTtlMillis resultCacheTtlMillis default = 5000
+     */
+    public void setResultCacheTtlMillis(long resultCacheTtlMillis) {
+        if (resultCacheTtlMillis < 0) {
+            throw new IllegalArgumentException("Time window must not be negative: " + resultCacheTtlMillis);
+        }
+        this.resultCacheTtlMillis = resultCacheTtlMillis;
+    }
+
+    /**
+     * isAdaptiveFrameRate
+     *
+     * @return whether the preview frame rate follows the decode throughput
+     */
+    public boolean isAdaptiveFrameRate() {
+        return adaptiveFrameRate;
+    }
+
+    /**
+     * setAdaptiveFrameRate
+     * <p>
+     * Lowers the camera's preview frame rate when the decode workers cannot keep up with it, and
+     * further while the scene is static or no scan is running, to save camera power. A scan
+     * always starts with the camera's default fps range. Read when the scan view starts a
+     * capture session, i.e. when its preview next starts.
+     *
+     * @param adaptiveFrameRate adaptiveFrameRate default = true
+     */
+    public void setAdaptiveFrameRate(boolean adaptiveFrameRate) {
+        this.adaptiveFrameRate = adaptiveFrameRate;
+    }
+
+    /**
+     * isResultThumbnail
+     *
+     * @return whether results come with a thumbnail of the decoded frame
+     */
+    public boolean isResultThumbnail() {
+        return resultThumbnail;
+    }
+
+    /**
+     * setResultThumbnail
+     * <p>
+     * Rendering the thumbnail passed along with a result takes a few milliseconds on the decode
+     * thread before the result is posted. Turn it off when no listener uses the bitmap; the
+     * listeners and the result intent then get null. Read per result.
+     *
+     * @param resultThumbnail resultThumbnail default = true
+     */
+    public void setResultThumbnail(boolean resultThumbnail) {
+        this.resultThumbnail = resultThumbnail;
+    }
+}
@@ -0,0 +1,56 @@
+package com.liangmayong.qrcode.decoding;
+
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers which codes were reported recently, so that a code held in view is reported once per
+ * time window instead of once per frame. A code is identified by its format and text.
+ * <p>
+ * The cache holds a fixed number of codes and forgets the least recently seen one first, so its
+ * size stays the same however long a scan session runs. Shared by the decode workers of a
+ * session, which check their results before rendering the thumbnail for them.
+ */
+final class DecodeResultCache {
+
+    private final long ttlMillis;
+    private final Map<String, Long> reportTimes;
+
+    DecodeResultCache(final int capacity, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        // Access order, so a code that stays in view is never the one evicted.
+        this.reportTimes = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Picks the results that were not reported within the time window and marks them as
+     * reported now.
+     *
+     * @return the fresh results, possibly none
+     */
+    synchronized Result[] filter(Result[] results, long now) {
+        List<Result> fresh = new ArrayList<Result>(results.length);
+        for (Result result : results) {
+            String key = result.getBarcodeFormat() + ":" + result.getText();
+            Long reportTime = reportTimes.get(key);
+            if (reportTime == null || now - reportTime >= ttlMillis) {
+                reportTimes.put(key, now);
+                fresh.add(result);
+            }
+        }
+        return fresh.toArray(new Result[fresh.size()]);
+    }
+
+    synchronized void clear() {
+        reportTimes.clear();
+    }
+}
@@ -0,0 +1,91 @@
+package com.liangmayong.qrcode.decoding;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Process;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps result thumbnails in memory for the activity that started the scan, so the result intent
+ * only carries a short handle instead of the parcelled bitmap. A bitmap in an intent is copied
+ * across Binder when the scan activity finishes, and a large one fails with a
+ * TransactionTooLargeException.
+ * <p>
+ * The store is local to the process: a handle from another process, or from before the process
+ * was restarted, resolves to null. Only the latest few thumbnails are kept.
+ */
+public final class DecodeResultStore {
+
+    /**
+     * Intent extra holding the handle of the result thumbnail.
+     */
+    public static final String EXTRA_BITMAP_HANDLE = "bitmap_handle";
+
+    private static final int CAPACITY = 4;
+
+    private static volatile DecodeResultStore ourInstance = null;
+
+    public static DecodeResultStore getInstance() {
+        if (ourInstance == null) {
+            synchronized (DecodeResultStore.class) {
+                if (ourInstance == null) {
+                    ourInstance = new DecodeResultStore();
+                }
+            }
+        }
+        return ourInstance;
+    }
+
+    private final Map<String, Bitmap> bitmaps = new LinkedHashMap<String, Bitmap>(CAPACITY + 1, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bitmap> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    private final String prefix = Process.myPid() + ":";
+    private long sequence;
+
+    private DecodeResultStore() {
+    }
+
+    /**
+     * Stores a bitmap.
+     *
+     * @param bitmap bitmap
+     * @return the handle to resolve it with, or null for a null bitmap
+     */
+    public synchronized String put(Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+        String handle = prefix + (++sequence);
+        bitmaps.put(handle, bitmap);
+        return handle;
+    }
+
+    /**
+     * Resolves a handle and forgets the bitmap.
+     *
+     * @param handle handle from {@link #put(Bitmap)}, may be null
+     * @return the bitmap, or null if the handle is unknown
+     */
+    public synchronized Bitmap take(String handle) {
+        return handle != null ? bitmaps.remove(handle) : null;
+    }
+
+    /**
+     * Resolves the thumbnail of a scan result intent and forgets it, so call it once, when the
+     * image is actually needed.
+     *
+     * @param data result intent of the scan activity
+     * @return the thumbnail, or null if there is none
+     */
+    public static Bitmap takeBitmap(Intent data) {
+        if (data == null) {
+            return null;
+        }
+        return getInstance().take(data.getStringExtra(EXTRA_BITMAP_HANDLE));
+    }
+}
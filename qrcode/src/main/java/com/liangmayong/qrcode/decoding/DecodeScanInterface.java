@@ -18,8 +18,32 @@ public interface DecodeScanInterface {
 
     void handleDecode(Result result, Bitmap barcode, long decode_time);
 
+    /**
+     * Called with the codes of one frame that were not reported recently, in multiple barcode
+     * or continuous mode.
+     *
+     * @return true to keep scanning
+     */
+    boolean handleDecodeMultiple(Result[] results, Bitmap barcode, long decode_time);
+
     void onDrawViewfinder();
 
+    /**
+     * Called when the camera stopped the preview by itself, e.g. because another app took the
+     * device. Scanning is over until the camera is opened again.
+     */
+    void onCameraError();
+
     DecodeInterceptor getDecodeInterceptor();
 
+    DecodeFrameFilter getDecodeFrameFilter();
+
+    DecodeOptions getDecodeOptions();
+
+    ScanMetrics getScanMetrics();
+
+    FrameFunnel getFrameFunnel();
+
+    FramePipeline getFramePipeline();
+
 }
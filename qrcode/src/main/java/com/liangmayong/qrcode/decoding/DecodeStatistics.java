@@ -0,0 +1,170 @@
+package com.liangmayong.qrcode.decoding;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Counts which binarizer and which barcode format produced each successful decode, and orders the
+ * decode attempts so that what has worked most often is tried first. The live scan loop uses
+ * {@link #getInstance()}. {@link com.liangmayong.qrcode.bitmap.DecodeBitmapHandler} uses
+ * {@link #getBitmapInstance()}: clean, high resolution gallery images favour other binarizers
+ * and formats than camera frames do and must not steer the live order.
+ * <p>
+ * The counts can be saved to and restored from the app's shared preferences, so a new session
+ * starts with the order learned on this device. Restored counts are halved, which lets the order
+ * follow a change in the labels being scanned.
+ */
+public final class DecodeStatistics {
+
+    private static final String PREFERENCES_NAME = "qrcode_decode_statistics";
+    private static final String BINARIZER_KEY_PREFIX = "binarizer.";
+    private static final String FORMAT_KEY_PREFIX = "format.";
+
+    private static volatile DecodeStatistics ourInstance = null;
+    private static volatile DecodeStatistics bitmapInstance = null;
+
+    public static DecodeStatistics getInstance() {
+        if (ourInstance == null) {
+            synchronized (DecodeStatistics.class) {
+                if (ourInstance == null) {
+                    ourInstance = new DecodeStatistics();
+                }
+            }
+        }
+        return ourInstance;
+    }
+
+    /**
+     * @return the statistics of decodes of still images, apart from the live scan loop's and
+     * never saved
+     */
+    public static DecodeStatistics getBitmapInstance() {
+        if (bitmapInstance == null) {
+            synchronized (DecodeStatistics.class) {
+                if (bitmapInstance == null) {
+                    bitmapInstance = new DecodeStatistics();
+                }
+            }
+        }
+        return bitmapInstance;
+    }
+
+    private final int[] binarizerHits = new int[DecodeBinarizer.values().length];
+    private final int[] formatHits = new int[BarcodeFormat.values().length];
+    private DecodeBinarizer[] binarizerOrder = DecodeBinarizer.values();
+    private BarcodeFormat lastFormat;
+    private int version;
+    private boolean restored;
+
+    private DecodeStatistics() {
+    }
+
+    /**
+     * Records a successful decode.
+     *
+     * @param binarizer the binarizer the result was found with
+     * @param format    the format of the result
+     */
+    public synchronized void recordSuccess(DecodeBinarizer binarizer, BarcodeFormat format) {
+        binarizerHits[binarizer.ordinal()]++;
+        formatHits[format.ordinal()]++;
+        lastFormat = format;
+        binarizerOrder = null;
+        version++;
+    }
+
+    /**
+     * @return the binarizers, most successful first; ties keep their declaration order
+     */
+    public synchronized DecodeBinarizer[] getBinarizerOrder() {
+        if (binarizerOrder == null) {
+            DecodeBinarizer[] order = DecodeBinarizer.values();
+            Arrays.sort(order, new Comparator<DecodeBinarizer>() {
+                @Override
+                public int compare(DecodeBinarizer lhs, DecodeBinarizer rhs) {
+                    return binarizerHits[rhs.ordinal()] - binarizerHits[lhs.ordinal()];
+                }
+            });
+            binarizerOrder = order;
+        }
+        return binarizerOrder.clone();
+    }
+
+    /**
+     * @return how many successes the given format has, including restored ones
+     */
+    public synchronized int getFormatHits(BarcodeFormat format) {
+        return formatHits[format.ordinal()];
+    }
+
+    /**
+     * @return the format of the latest success in this process, or null
+     */
+    public synchronized BarcodeFormat getLastFormat() {
+        return lastFormat;
+    }
+
+    /**
+     * A counter that changes whenever a success is recorded, so callers can cache an order.
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Forgets everything learned so far.
+     */
+    public synchronized void reset() {
+        Arrays.fill(binarizerHits, 0);
+        Arrays.fill(formatHits, 0);
+        lastFormat = null;
+        binarizerOrder = null;
+        version++;
+    }
+
+    /**
+     * Loads the counts saved by {@link #save(Context)}. Only the first call per process has an
+     * effect, later sessions keep learning from the counts in memory.
+     *
+     * @param context context
+     */
+    public synchronized void restore(Context context) {
+        if (restored) {
+            return;
+        }
+        restored = true;
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        for (DecodeBinarizer binarizer : DecodeBinarizer.values()) {
+            binarizerHits[binarizer.ordinal()] +=
+                    preferences.getInt(BINARIZER_KEY_PREFIX + binarizer.name(), 0) / 2;
+        }
+        for (BarcodeFormat format : BarcodeFormat.values()) {
+            formatHits[format.ordinal()] += preferences.getInt(FORMAT_KEY_PREFIX + format.name(), 0) / 2;
+        }
+        binarizerOrder = null;
+        version++;
+    }
+
+    /**
+     * Saves the current counts for the next session. The write to disk happens in the
+     * background, so this may be called from the main thread.
+     *
+     * @param context context
+     */
+    public synchronized void save(Context context) {
+        SharedPreferences.Editor editor =
+                context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit();
+        for (DecodeBinarizer binarizer : DecodeBinarizer.values()) {
+            editor.putInt(BINARIZER_KEY_PREFIX + binarizer.name(), binarizerHits[binarizer.ordinal()]);
+        }
+        for (BarcodeFormat format : BarcodeFormat.values()) {
+            editor.putInt(FORMAT_KEY_PREFIX + format.name(), formatHits[format.ordinal()]);
+        }
+        editor.apply();
+    }
+}
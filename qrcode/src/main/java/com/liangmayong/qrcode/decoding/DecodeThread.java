@@ -26,6 +26,7 @@ import android.os.Looper;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.DecodeHintType;
 import com.google.zxing.ResultPointCallback;
+import com.liangmayong.qrcode.camera.FrameBufferPool;
 
 /**
  * This thread does all the heavy lifting of decoding the images.
@@ -34,17 +35,29 @@ final class DecodeThread extends Thread {
 
   public static final String BARCODE_BITMAP = "barcode_bitmap";
   public static final String DERCODE_TIME = "decode_time";
+  static final String DISPATCH_NANOS = "dispatch_nanos";
+  // The matrix buffer, the downsampled pyramid level and their inverted copies, scheduled or
+  // raced, are in flight while a frame is decoded, plus an array copy of a buffer-backed frame
+  // for byte[] hooks.
+  private static final int FRAME_BUFFER_POOL_SIZE = 5;
   private final DecodeScanInterface activity;
+  private final DecodeWorkerPool workerPool;
   private final Hashtable<DecodeHintType, Object> hints;
+  private final RegionOfInterestTracker.PointCollector pointCollector;
+  private final int frameBufferSize;
   private Handler handler;
   private final CountDownLatch handlerInitLatch;
 
   DecodeThread(DecodeScanInterface scanInterface,
+               DecodeWorkerPool workerPool,
                Vector<BarcodeFormat> decodeFormats,
                String characterSet,
-               ResultPointCallback resultPointCallback) {
+               ResultPointCallback resultPointCallback,
+               int frameBufferSize) {
 
     this.activity = scanInterface;
+    this.workerPool = workerPool;
+    this.frameBufferSize = frameBufferSize;
     handlerInitLatch = new CountDownLatch(1);
 
     hints = new Hashtable<DecodeHintType, Object>(3);
@@ -62,7 +75,9 @@ final class DecodeThread extends Thread {
       hints.put(DecodeHintType.CHARACTER_SET, characterSet);
     }
 
-    hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, resultPointCallback);
+    // Candidates also steer the region of interest, see RegionOfInterestTracker.
+    pointCollector = new RegionOfInterestTracker.PointCollector(resultPointCallback);
+    hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, pointCollector);
   }
 
   Handler getHandler() {
@@ -77,7 +92,9 @@ final class DecodeThread extends Thread {
   @Override
   public void run() {
     Looper.prepare();
-    handler = new DecodeHandler(activity, hints);
+    FrameBufferPool bufferPool = new FrameBufferPool(FRAME_BUFFER_POOL_SIZE);
+    bufferPool.prime(frameBufferSize);
+    handler = new DecodeHandler(activity, workerPool, hints, pointCollector, bufferPool);
     handlerInitLatch.countDown();
     Looper.loop();
   }
@@ -0,0 +1,196 @@
+package com.liangmayong.qrcode.decoding;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Message;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.ResultPointCallback;
+import com.liangmayong.qrcode.R;
+import com.liangmayong.qrcode.camera.CameraManager;
+
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of {@link DecodeThread}s, each with its own reader, that decode preview frames in
+ * parallel. Every worker asks the camera for a frame of its own whenever it is idle, so frames go
+ * to whichever worker is free.
+ * <p>
+ * Decodes are tagged with a generation number. The first worker to report a result for the
+ * current generation wins and moves the pool to the next generation, which tells every other
+ * worker to drop what it is doing.
+ */
+final class DecodeWorkerPool {
+
+    /**
+     * Frames in a row that ran out of time before one frame is decoded without a deadline, so a
+     * code that always takes longer than the budget is still read eventually.
+     */
+    private static final int MAX_TIMEOUT_STREAK = 3;
+
+    private final DecodeThread[] workers;
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicInteger timeoutStreak = new AtomicInteger();
+    private final SceneChangeDetector sceneChangeDetector = new SceneChangeDetector();
+    private final RegionOfInterestTracker regionOfInterestTracker = new RegionOfInterestTracker();
+    private final InversionScheduler inversionScheduler = new InversionScheduler();
+    private final DecodeResultCache resultCache;
+    private ExecutorService racingExecutor;
+    private volatile boolean decoding;
+
+    DecodeWorkerPool(DecodeScanInterface scanInterface, Vector<BarcodeFormat> decodeFormats,
+                     String characterSet, ResultPointCallback resultPointCallback, int workerCount) {
+        DecodeOptions options = scanInterface.getDecodeOptions();
+        resultCache = new DecodeResultCache(options.getResultCacheCapacity(), options.getResultCacheTtlMillis());
+        // The camera manager works the framing rects out lazily and without locking, so they
+        // are cached here on the main thread before any worker reads them.
+        Rect framingRect = CameraManager.get().getFramingRectInPreview();
+        CameraManager.get().getFramingRectInPreviewFrame();
+        int frameBufferSize = framingRect.width() * framingRect.height();
+        workers = new DecodeThread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new DecodeThread(scanInterface, this, decodeFormats, characterSet,
+                    resultPointCallback, frameBufferSize);
+            workers[i].setName("DecodeThread-" + i);
+        }
+    }
+
+    void start() {
+        for (DecodeThread worker : workers) {
+            worker.start();
+        }
+    }
+
+    int getWorkerCount() {
+        return workers.length;
+    }
+
+    Handler getHandler(int worker) {
+        return workers[worker].getHandler();
+    }
+
+    SceneChangeDetector getSceneChangeDetector() {
+        return sceneChangeDetector;
+    }
+
+    DecodeResultCache getResultCache() {
+        return resultCache;
+    }
+
+    RegionOfInterestTracker getRegionOfInterestTracker() {
+        return regionOfInterestTracker;
+    }
+
+    InversionScheduler getInversionScheduler() {
+        return inversionScheduler;
+    }
+
+    /**
+     * Whether the capture handler wants frames decoded. Idle workers only ask the camera for
+     * their next frame themselves while this is set.
+     */
+    void setDecoding(boolean decoding) {
+        this.decoding = decoding;
+    }
+
+    boolean isDecoding() {
+        return decoding;
+    }
+
+    /**
+     * Decides whether the frame about to be decoded gets a deadline.
+     *
+     * @param deadlineMillis the configured budget, 0 for none
+     * @return false if the frame is decoded without a deadline
+     */
+    boolean claimFrameDeadline(long deadlineMillis) {
+        if (deadlineMillis <= 0) {
+            return false;
+        }
+        int streak = timeoutStreak.get();
+        return streak < MAX_TIMEOUT_STREAK || !timeoutStreak.compareAndSet(streak, 0);
+    }
+
+    void onFrameFinished(boolean timedOut) {
+        if (timedOut) {
+            timeoutStreak.incrementAndGet();
+        } else {
+            timeoutStreak.set(0);
+        }
+    }
+
+    /**
+     * @return the generation a decode starting now belongs to
+     */
+    int getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return whether a decode started in the given generation is still wanted
+     */
+    boolean isCurrent(int decodeGeneration) {
+        return generation.get() == decodeGeneration;
+    }
+
+    /**
+     * Claims the result of the given generation. Only one caller per generation succeeds; the
+     * others must drop their result.
+     */
+    boolean claimSuccess(int decodeGeneration) {
+        return generation.compareAndSet(decodeGeneration, decodeGeneration + 1);
+    }
+
+    /**
+     * Abandons every decode currently in flight.
+     */
+    void cancel() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Threads for the binarizer attempts that race a worker's own attempt, shared by all workers
+     * and only created once racing is used.
+     */
+    synchronized ExecutorService getRacingExecutor() {
+        if (racingExecutor == null) {
+            racingExecutor = Executors.newCachedThreadPool(new RacingThreadFactory());
+        }
+        return racingExecutor;
+    }
+
+    void quitSynchronously() {
+        cancel();
+        synchronized (this) {
+            if (racingExecutor != null) {
+                racingExecutor.shutdown();
+            }
+        }
+        for (DecodeThread worker : workers) {
+            Message quit = Message.obtain(worker.getHandler(), R.id.decode_quit);
+            quit.sendToTarget();
+        }
+        for (DecodeThread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                // continue
+            }
+        }
+    }
+
+    private static final class RacingThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "DecodeRacer-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.liangmayong.qrcode.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.aztec.AztecReader;
+import com.google.zxing.datamatrix.DataMatrixReader;
+import com.google.zxing.maxicode.MaxiCodeReader;
+import com.google.zxing.oned.MultiFormatOneDReader;
+import com.google.zxing.pdf417.PDF417Reader;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispatches a frame to the readers of the requested barcode formats, one reader family at a
+ * time. Unlike {@link MultiFormatReader}, which always runs its readers in a fixed order, 1D
+ * first, only the families of the requested formats are built, and they are tried in this order:
+ * <ol>
+ * <li>the family of the latest success in {@link DecodeStatistics}, since the next code is most
+ * likely of the same kind;</li>
+ * <li>families with more successes first;</li>
+ * <li>cheaper families first. A miss of the Data Matrix or Aztec detector costs a few
+ * microseconds, QR and PDF417 about a millisecond, and the 1D row scans the most.</li>
+ * </ol>
+ * The 1D readers are skipped for a frame when the readers of a 2D family that ran before them
+ * reported {@value #TWO_D_POINT_THRESHOLD} or more finder pattern candidates: the code in view
+ * is a 2D symbol that could not be read, and scanning its rows for a 1D code is wasted work.
+ * <p>
+ * The hints are fixed when the reader is created; hints passed to {@link #decode(BinaryBitmap, Map)}
+ * are ignored. Not thread safe.
+ */
+final class FormatOrderedReader implements Reader {
+
+    private static final int TWO_D_POINT_THRESHOLD = 3;
+
+    private enum Family {
+        // Declared cheapest first.
+        DATA_MATRIX, AZTEC, MAXICODE, QR_CODE, PDF_417, ONE_D;
+
+        static Family of(BarcodeFormat format) {
+            switch (format) {
+                case QR_CODE:
+                    return QR_CODE;
+                case DATA_MATRIX:
+                    return DATA_MATRIX;
+                case AZTEC:
+                    return AZTEC;
+                case PDF_417:
+                    return PDF_417;
+                case MAXICODE:
+                    return MAXICODE;
+                default:
+                    return ONE_D;
+            }
+        }
+
+        Reader createReader(Map<DecodeHintType, ?> hints) {
+            switch (this) {
+                case DATA_MATRIX:
+                    return new DataMatrixReader();
+                case AZTEC:
+                    return new AztecReader();
+                case MAXICODE:
+                    return new MaxiCodeReader();
+                case QR_CODE:
+                    return new QRCodeReader();
+                case PDF_417:
+                    return new PDF417Reader();
+                default:
+                    return new MultiFormatOneDReader(hints);
+            }
+        }
+    }
+
+    private final DecodeStatistics statistics;
+    private final boolean skipOneDForTwoD;
+    private final List<FamilyReader> familyReaders = new ArrayList<FamilyReader>();
+    private int orderVersion = -1;
+    private int twoDimensionalPoints;
+    private DecodeCancellation cancellation;
+
+    /**
+     * @param skipOneDForTwoD whether to skip the 1D readers when a 2D symbol was seen, see above
+     */
+    FormatOrderedReader(Map<DecodeHintType, ?> hints, DecodeStatistics statistics, boolean skipOneDForTwoD) {
+        this.statistics = statistics;
+        this.skipOneDForTwoD = skipOneDForTwoD;
+        Map<Family, EnumSet<BarcodeFormat>> families = new EnumMap<Family, EnumSet<BarcodeFormat>>(Family.class);
+        for (BarcodeFormat format : getPossibleFormats(hints)) {
+            Family family = Family.of(format);
+            EnumSet<BarcodeFormat> formats = families.get(family);
+            if (formats == null) {
+                formats = EnumSet.noneOf(BarcodeFormat.class);
+                families.put(family, formats);
+            }
+            formats.add(format);
+        }
+        Object callback = hints.get(DecodeHintType.NEED_RESULT_POINT_CALLBACK);
+        for (Map.Entry<Family, EnumSet<BarcodeFormat>> entry : families.entrySet()) {
+            Family family = entry.getKey();
+            Map<DecodeHintType, Object> familyHints = new HashMap<DecodeHintType, Object>(hints);
+            familyHints.put(DecodeHintType.POSSIBLE_FORMATS, new ArrayList<BarcodeFormat>(entry.getValue()));
+            if (family != Family.ONE_D) {
+                familyHints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK,
+                        new TwoDimensionalPointCounter((ResultPointCallback) callback));
+            }
+            familyReaders.add(new FamilyReader(family, family.createReader(familyHints), familyHints,
+                    entry.getValue()));
+        }
+    }
+
+    /**
+     * Sets the token checked before each family's reader runs, for the decodes that follow.
+     *
+     * @param cancellation cancellation, or null for none
+     */
+    void setCancellation(DecodeCancellation cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Decodes with each family's reader in turn.
+     *
+     * @throws NotFoundException if no family found a code
+     * @throws DecodeCancellation.DecodeCancelledException if the decode was cancelled
+     */
+    @Override
+    public Result decode(BinaryBitmap image) throws NotFoundException {
+        sortFamilies();
+        twoDimensionalPoints = 0;
+        for (FamilyReader familyReader : familyReaders) {
+            if (familyReader.family == Family.ONE_D && skipOneDForTwoD
+                    && twoDimensionalPoints >= TWO_D_POINT_THRESHOLD) {
+                continue;
+            }
+            if (cancellation != null) {
+                // The binary image may already be cached, with no more reads from the source.
+                cancellation.throwIfCancelled();
+            }
+            try {
+                return familyReader.reader.decode(image, familyReader.hints);
+            } catch (ReaderException re) {
+                // try the next family
+            } finally {
+                familyReader.reader.reset();
+            }
+        }
+        throw NotFoundException.getNotFoundInstance();
+    }
+
+    @Override
+    public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints) throws NotFoundException {
+        return decode(image);
+    }
+
+    @Override
+    public void reset() {
+        for (FamilyReader familyReader : familyReaders) {
+            familyReader.reader.reset();
+        }
+    }
+
+    private void sortFamilies() {
+        int version = statistics.getVersion();
+        if (version == orderVersion) {
+            return;
+        }
+        orderVersion = version;
+        BarcodeFormat lastFormat = statistics.getLastFormat();
+        final Family lastFamily = lastFormat != null ? Family.of(lastFormat) : null;
+        for (FamilyReader familyReader : familyReaders) {
+            familyReader.hits = 0;
+            for (BarcodeFormat format : familyReader.formats) {
+                familyReader.hits += statistics.getFormatHits(format);
+            }
+        }
+        Collections.sort(familyReaders, new Comparator<FamilyReader>() {
+            @Override
+            public int compare(FamilyReader lhs, FamilyReader rhs) {
+                if (lhs.family == rhs.family) {
+                    return 0;
+                }
+                if (lhs.family == lastFamily || rhs.family == lastFamily) {
+                    return lhs.family == lastFamily ? -1 : 1;
+                }
+                if (lhs.hits != rhs.hits) {
+                    return rhs.hits - lhs.hits;
+                }
+                return lhs.family.ordinal() - rhs.family.ordinal();
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<BarcodeFormat> getPossibleFormats(Map<DecodeHintType, ?> hints) {
+        Object formats = hints == null ? null : hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        if (formats instanceof Collection && !((Collection<?>) formats).isEmpty()) {
+            return (Collection<BarcodeFormat>) formats;
+        }
+        return EnumSet.allOf(BarcodeFormat.class);
+    }
+
+    private static final class FamilyReader {
+
+        private final Family family;
+        private final Reader reader;
+        private final Map<DecodeHintType, ?> hints;
+        private final EnumSet<BarcodeFormat> formats;
+        private int hits;
+
+        FamilyReader(Family family, Reader reader, Map<DecodeHintType, ?> hints,
+                     EnumSet<BarcodeFormat> formats) {
+            this.family = family;
+            this.reader = reader;
+            this.hints = hints;
+            this.formats = formats;
+        }
+    }
+
+    /**
+     * Counts the candidates the 2D readers report and passes them on.
+     */
+    private final class TwoDimensionalPointCounter implements ResultPointCallback {
+
+        private final ResultPointCallback delegate;
+
+        TwoDimensionalPointCounter(ResultPointCallback delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void foundPossibleResultPoint(ResultPoint point) {
+            twoDimensionalPoints++;
+            if (delegate != null) {
+                delegate.foundPossibleResultPoint(point);
+            }
+        }
+    }
+}
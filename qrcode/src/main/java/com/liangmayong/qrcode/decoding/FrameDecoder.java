@@ -0,0 +1,355 @@
+package com.liangmayong.qrcode.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.google.zxing.multi.MultipleBarcodeReader;
+import com.google.zxing.multi.qrcode.QRCodeMultiReader;
+import com.liangmayong.qrcode.camera.FrameBufferPool;
+import com.liangmayong.qrcode.camera.InvertingLuminanceSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Binarizes and decodes the luminance source of one preview frame. Each decode worker owns one
+ * FrameDecoder, and with it the readers, which are reused from one frame to the next.
+ * <p>
+ * By default the binarizers are tried one after the other. In racing mode they run at the same
+ * time on separate threads over the same read-only source: the first result wins and the other
+ * attempts are cancelled at their next read from the source.
+ * <p>
+ * Binarizers and reader families are tried in the order {@link DecodeStatistics} has learned, and
+ * every result is recorded there.
+ */
+final class FrameDecoder {
+
+    /**
+     * How often a worker waiting for racers re-checks whether its decode was cancelled.
+     */
+    private static final long RACE_POLL_MS = 20L;
+
+    private final DecodeOptions options;
+    private final DecodeWorkerPool workerPool;
+    private final Map<DecodeHintType, Object> hints;
+    private final ScanMetrics metrics;
+    private final FrameFunnel funnel;
+    private final FrameBufferPool bufferPool;
+    private final DecodeStatistics statistics = DecodeStatistics.getInstance();
+    private final List<FormatOrderedReader> readers = new ArrayList<FormatOrderedReader>(3);
+    private final List<Future<?>> racers = new ArrayList<Future<?>>(2);
+    private List<MultipleBarcodeReader> multipleReaders;
+    private FormatOrderedReader multipleFormatReader;
+    /**
+     * The inverted racer's matrix, from the worker's pool, until the racers are done with it.
+     */
+    private byte[] invertedMatrix;
+
+    FrameDecoder(DecodeOptions options, ScanMetrics metrics, FrameFunnel funnel, DecodeWorkerPool workerPool,
+                 Map<DecodeHintType, Object> hints, FrameBufferPool bufferPool) {
+        this.options = options;
+        this.metrics = metrics;
+        this.funnel = funnel;
+        this.bufferPool = bufferPool;
+        this.workerPool = workerPool;
+        this.hints = hints;
+    }
+
+    /**
+     * Decodes a frame. In racing mode attempts that lost may still be winding down when this
+     * returns; call {@link #awaitRacers()} before the source's buffers are reused.
+     *
+     * @return the result, or null if no attempt found a code or the decode was cancelled
+     */
+    Result decode(LuminanceSource source, DecodeCancellation cancellation) {
+        if (options.isBinarizerRacing()) {
+            return race(source, cancellation);
+        }
+        LuminanceSource checkedSource = new CancellableLuminanceSource(source, cancellation);
+        FormatOrderedReader reader = getReader(0);
+        for (DecodeBinarizer binarizer : statistics.getBinarizerOrder()) {
+            if (cancellation.isCancelled()) {
+                return null;
+            }
+            Result result = decodeOnce(reader, binarizer, checkedSource, cancellation, metrics, funnel);
+            if (result != null) {
+                statistics.recordSuccess(binarizer, result.getBarcodeFormat());
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes every code in a frame, with each binarizer in turn. A code found more than once,
+     * by different binarizers or readers, is reported once.
+     *
+     * @return the distinct results, empty if there are none or the decode was superseded; a
+     * decode that timed out returns what it found until then
+     */
+    Result[] decodeMultiple(LuminanceSource source, DecodeCancellation cancellation) {
+        LuminanceSource checkedSource = new CancellableLuminanceSource(source, cancellation);
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        List<MultipleBarcodeReader> barcodeReaders = getMultipleReaders();
+        if (multipleFormatReader != null) {
+            multipleFormatReader.setCancellation(cancellation);
+        }
+        for (DecodeBinarizer binarizer : statistics.getBinarizerOrder()) {
+            TimedBinarizer timedBinarizer = new TimedBinarizer(binarizer.create(checkedSource));
+            BinaryBitmap image = new BinaryBitmap(timedBinarizer);
+            boolean binarizerFound = false;
+            for (MultipleBarcodeReader reader : barcodeReaders) {
+                if (cancellation.isCancelled()) {
+                    return collect(results, cancellation);
+                }
+                long start = System.nanoTime();
+                long binarizeStart = timedBinarizer.getNanos();
+                boolean found = false;
+                try {
+                    for (Result result : reader.decodeMultiple(image, hints)) {
+                        found = true;
+                        String key = result.getBarcodeFormat() + ":" + result.getText();
+                        if (!results.containsKey(key)) {
+                            results.put(key, result);
+                            statistics.recordSuccess(binarizer, result.getBarcodeFormat());
+                        }
+                    }
+                } catch (DecodeCancellation.DecodeCancelledException e) {
+                    return collect(results, cancellation);
+                } catch (Exception e) {
+                    // Not found.
+                }
+                long binarizeNanos = timedBinarizer.getNanos() - binarizeStart;
+                metrics.record(ScanMetrics.Stage.BINARIZE, binarizeNanos);
+                metrics.record(found ? ScanMetrics.Stage.DECODE : ScanMetrics.Stage.DETECT,
+                        System.nanoTime() - start - binarizeNanos);
+                binarizerFound |= found;
+            }
+            if (!binarizerFound) {
+                funnel.recordFailedAttempt(binarizer);
+            }
+        }
+        return collect(results, cancellation);
+    }
+
+    private static Result[] collect(Map<String, Result> results, DecodeCancellation cancellation) {
+        if (cancellation.isSuperseded()) {
+            return new Result[0];
+        }
+        return results.values().toArray(new Result[results.size()]);
+    }
+
+    /**
+     * Blocks until every attempt started by the last {@link #decode} call has finished.
+     */
+    void awaitRacers() {
+        for (Future<?> racer : racers) {
+            try {
+                racer.get();
+            } catch (InterruptedException e) {
+                // continue
+            } catch (ExecutionException e) {
+                // The attempt has already recorded its outcome.
+            }
+        }
+        racers.clear();
+        bufferPool.release(invertedMatrix);
+        invertedMatrix = null;
+    }
+
+    private Result race(LuminanceSource source, DecodeCancellation cancellation) {
+        // Fill the source's shared matrix on this thread, so the racers only ever read it.
+        source.getMatrix();
+
+        List<Attempt> attempts = new ArrayList<Attempt>(3);
+        for (DecodeBinarizer binarizer : statistics.getBinarizerOrder()) {
+            attempts.add(new Attempt(binarizer, false));
+        }
+        LuminanceSource invertedSource = null;
+        // A frame scheduled inverted is already light-on-dark; inverting it again would only
+        // decode the original polarity a second time.
+        if (options.isInvertedBinarizerRacing() && !(source instanceof InvertingLuminanceSource)) {
+            // The racer inverts the shared matrix into a pooled buffer, not a new array per frame.
+            invertedMatrix = bufferPool.acquire(source.getWidth() * source.getHeight());
+            invertedSource = new InvertingLuminanceSource(source, invertedMatrix);
+            attempts.add(new Attempt(DecodeBinarizer.HYBRID, true));
+        }
+
+        Race race = new Race(new DecodeCancellation(cancellation), attempts.size());
+        for (int i = 1; i < attempts.size(); i++) {
+            Attempt attempt = attempts.get(i);
+            try {
+                racers.add(workerPool.getRacingExecutor().submit(new Racer(race, attempt, getReader(i),
+                        attempt.inverted ? invertedSource : source, metrics, funnel)));
+            } catch (RejectedExecutionException e) {
+                // The pool is shutting down.
+                race.finish(attempt, null);
+            }
+        }
+        // The attempt most likely to win runs on the worker thread itself.
+        new Racer(race, attempts.get(0), getReader(0), source, metrics, funnel).run();
+        Result result = race.awaitWinner();
+        if (result != null) {
+            statistics.recordSuccess(race.getWinner().binarizer, result.getBarcodeFormat());
+        }
+        return result;
+    }
+
+    private List<MultipleBarcodeReader> getMultipleReaders() {
+        if (multipleReaders == null) {
+            multipleReaders = new ArrayList<MultipleBarcodeReader>(2);
+            List<BarcodeFormat> otherFormats = new ArrayList<BarcodeFormat>();
+            Object formats = hints.get(DecodeHintType.POSSIBLE_FORMATS);
+            if (formats instanceof Collection && !((Collection<?>) formats).isEmpty()) {
+                for (Object format : (Collection<?>) formats) {
+                    otherFormats.add((BarcodeFormat) format);
+                }
+            } else {
+                otherFormats.addAll(Arrays.asList(BarcodeFormat.values()));
+            }
+            if (otherFormats.remove(BarcodeFormat.QR_CODE)) {
+                // Several QR codes in view confuse the single code detector, which then finds
+                // none at all; this one sorts the finder patterns into codes.
+                multipleReaders.add(new QRCodeMultiReader());
+            }
+            if (!otherFormats.isEmpty()) {
+                Map<DecodeHintType, Object> otherHints = new HashMap<DecodeHintType, Object>(hints);
+                otherHints.put(DecodeHintType.POSSIBLE_FORMATS, otherFormats);
+                // Codes may sit anywhere in the frame, not just across its middle rows.
+                otherHints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+                multipleFormatReader = new FormatOrderedReader(otherHints, statistics, false);
+                multipleReaders.add(new GenericMultipleBarcodeReader(multipleFormatReader));
+            }
+        }
+        return multipleReaders;
+    }
+
+    private FormatOrderedReader getReader(int index) {
+        while (readers.size() <= index) {
+            readers.add(new FormatOrderedReader(hints, statistics, true));
+        }
+        return readers.get(index);
+    }
+
+    private static Result decodeOnce(FormatOrderedReader reader, DecodeBinarizer binarizer,
+                                     LuminanceSource source, DecodeCancellation cancellation,
+                                     ScanMetrics metrics, FrameFunnel funnel) {
+        reader.setCancellation(cancellation);
+        TimedBinarizer timedBinarizer = new TimedBinarizer(binarizer.create(source));
+        long start = System.nanoTime();
+        Result result = null;
+        try {
+            result = reader.decode(new BinaryBitmap(timedBinarizer));
+        } catch (DecodeCancellation.DecodeCancelledException e) {
+            // An abandoned attempt says nothing about how long the stages take.
+            return null;
+        } catch (Exception e) {
+            // Not found.
+        }
+        long binarizeNanos = timedBinarizer.getNanos();
+        metrics.record(ScanMetrics.Stage.BINARIZE, binarizeNanos);
+        metrics.record(result != null ? ScanMetrics.Stage.DECODE : ScanMetrics.Stage.DETECT,
+                System.nanoTime() - start - binarizeNanos);
+        if (result == null) {
+            funnel.recordFailedAttempt(binarizer);
+        }
+        return result;
+    }
+
+    private static final class Attempt {
+
+        private final DecodeBinarizer binarizer;
+        private final boolean inverted;
+
+        Attempt(DecodeBinarizer binarizer, boolean inverted) {
+            this.binarizer = binarizer;
+            this.inverted = inverted;
+        }
+    }
+
+    /**
+     * Collects the outcome of the attempts racing on one frame.
+     */
+    private static final class Race {
+
+        private final DecodeCancellation cancellation;
+        private final int attemptCount;
+        private int finished;
+        private Attempt winner;
+        private Result result;
+
+        Race(DecodeCancellation cancellation, int attemptCount) {
+            this.cancellation = cancellation;
+            this.attemptCount = attemptCount;
+        }
+
+        synchronized void finish(Attempt attempt, Result attemptResult) {
+            finished++;
+            if (attemptResult != null && winner == null) {
+                winner = attempt;
+                result = attemptResult;
+                // Abandon the others at their next read from the source.
+                cancellation.cancel();
+            }
+            notifyAll();
+        }
+
+        synchronized Result awaitWinner() {
+            while (result == null && finished < attemptCount && !cancellation.isCancelled()) {
+                try {
+                    wait(RACE_POLL_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        synchronized Attempt getWinner() {
+            return winner;
+        }
+    }
+
+    private static final class Racer implements Runnable {
+
+        private final Race race;
+        private final Attempt attempt;
+        private final FormatOrderedReader reader;
+        private final LuminanceSource source;
+        private final ScanMetrics metrics;
+        private final FrameFunnel funnel;
+
+        Racer(Race race, Attempt attempt, FormatOrderedReader reader, LuminanceSource source,
+              ScanMetrics metrics, FrameFunnel funnel) {
+            this.race = race;
+            this.attempt = attempt;
+            this.reader = reader;
+            this.source = source;
+            this.metrics = metrics;
+            this.funnel = funnel;
+        }
+
+        @Override
+        public void run() {
+            Result result = null;
+            try {
+                result = decodeOnce(reader, attempt.binarizer,
+                        new CancellableLuminanceSource(source, race.cancellation), race.cancellation,
+                        metrics, funnel);
+            } finally {
+                race.finish(attempt, result);
+            }
+        }
+    }
+}
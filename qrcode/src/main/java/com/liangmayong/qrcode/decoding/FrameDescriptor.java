@@ -0,0 +1,228 @@
+package com.liangmayong.qrcode.decoding;
+
+import android.graphics.Rect;
+
+import com.google.zxing.Result;
+import com.liangmayong.qrcode.camera.FrameBufferPool;
+import com.liangmayong.qrcode.camera.PreviewFrame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the {@link FrameStage}s of a {@link FramePipeline} know about the preview frame being
+ * decoded. The pixels are the camera's own buffer and are never copied; stages read them and
+ * leave annotations for later stages instead of making a processed copy. Only
+ * {@link #getData()} copies a frame whose Y plane is not in an array, so stages should prefer
+ * {@link #getLuminance(int, int)} or {@link #getFrame()}.
+ * <p>
+ * Each decode thread reuses one descriptor from frame to frame, so neither the descriptor nor the
+ * frame buffer may be kept beyond the call of a stage.
+ */
+public final class FrameDescriptor {
+
+    /**
+     * Clockwise rotation from the frame the camera delivers to the framing rect coordinates.
+     */
+    public static final int ROTATION = 90;
+
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+    private final FrameBufferPool bufferPool;
+    private PreviewFrame frame;
+    private byte[] packedData;
+    private Rect crop;
+    private Rect cropInFrame;
+    private Rect region;
+    private boolean inverted;
+    private Result[] results;
+
+    /**
+     * @param bufferPool pool of the decode thread, for the copy {@link #getData()} may need
+     */
+    FrameDescriptor(FrameBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    void reset(PreviewFrame frame, Rect crop, Rect cropInFrame) {
+        this.frame = frame;
+        this.crop = crop;
+        this.cropInFrame = cropInFrame;
+        attributes.clear();
+        region = null;
+        inverted = false;
+        results = null;
+    }
+
+    /**
+     * Drops the references to the frame once it has been decoded.
+     */
+    void release() {
+        frame = null;
+        bufferPool.release(packedData);
+        packedData = null;
+        attributes.clear();
+        results = null;
+    }
+
+    /**
+     * @return the unrotated preview frame
+     */
+    public PreviewFrame getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return the unrotated preview frame, Y plane first with rows as wide as the frame; do not
+     * modify it. A frame in a buffer is copied into an array on the first call.
+     */
+    public byte[] getData() {
+        byte[] data = frame.getData();
+        if (data != null) {
+            return data;
+        }
+        if (packedData == null) {
+            packedData = bufferPool.acquire(frame.getWidth() * frame.getHeight());
+            frame.copyLuminance(packedData);
+        }
+        return packedData;
+    }
+
+    /**
+     * @return the width of the unrotated preview frame
+     */
+    public int getDataWidth() {
+        return frame.getWidth();
+    }
+
+    /**
+     * @return the height of the unrotated preview frame
+     */
+    public int getDataHeight() {
+        return frame.getHeight();
+    }
+
+    /**
+     * @return the rotation of the framing rect coordinates, see {@link #ROTATION}
+     */
+    public int getRotation() {
+        return ROTATION;
+    }
+
+    /**
+     * @return a copy of the framing rect in rotated preview coordinates, the area that is decoded
+     */
+    public Rect getCrop() {
+        return new Rect(crop);
+    }
+
+    /**
+     * @return a copy of the framing rect in the coordinates of the unrotated frame
+     */
+    public Rect getCropInFrame() {
+        return new Rect(cropInFrame);
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the frame arrived, see
+     * {@link PreviewFrame#getTimestampNanos()}
+     */
+    public long getTimestampNanos() {
+        return frame.getTimestampNanos();
+    }
+
+    /**
+     * Reads one pixel of the rotated crop without rotating the frame.
+     *
+     * @param x column in the crop, from 0 to its width
+     * @param y row in the crop, from 0 to its height
+     * @return the luminance, from 0 to 255
+     */
+    public int getLuminance(int x, int y) {
+        // Rotated pixel (x, y) lives at column y, row (dataHeight - 1 - x) of the frame.
+        return frame.getLuminance(crop.top + y, frame.getHeight() - 1 - crop.left - x);
+    }
+
+    /**
+     * setRegion
+     * <p>
+     * Narrows the decode to a part of the crop. Set by a {@link FrameStage.Phase#REGION} stage,
+     * it takes the place of the region of interest tracker for this frame.
+     *
+     * @param region region relative to the crop, or null for the whole crop
+     */
+    public void setRegion(Rect region) {
+        if (region == null) {
+            this.region = null;
+            return;
+        }
+        Rect clipped = new Rect(region);
+        if (!clipped.intersect(0, 0, crop.width(), crop.height())) {
+            throw new IllegalArgumentException("Region lies outside the crop: " + region);
+        }
+        this.region = clipped;
+    }
+
+    /**
+     * @return a copy of the region relative to the crop that is decoded, or null for the whole
+     * crop; from the ENHANCE phase on this includes the tracked region of interest
+     */
+    public Rect getRegion() {
+        return region != null ? new Rect(region) : null;
+    }
+
+    void setDecodeRegion(Rect region) {
+        this.region = region;
+    }
+
+    /**
+     * setInverted
+     * <p>
+     * Decodes the frame with black and white swapped, for light codes on a dark background.
+     *
+     * @param inverted inverted default = as scheduled by the inverted decode interval
+     */
+    public void setInverted(boolean inverted) {
+        this.inverted = inverted;
+    }
+
+    public boolean isInverted() {
+        return inverted;
+    }
+
+    /**
+     * @return the codes found in the frame, null before the decode; a POST stage may change the
+     * array in place
+     */
+    public Result[] getResults() {
+        return results;
+    }
+
+    /**
+     * setResults
+     * <p>
+     * Replaces the codes found in the frame. An empty array or null turns the frame into a miss.
+     *
+     * @param results results
+     */
+    public void setResults(Result[] results) {
+        this.results = results;
+    }
+
+    /**
+     * Leaves a note on the frame for later stages.
+     *
+     * @param key   key
+     * @param value value, or null to remove the note
+     */
+    public void setAttribute(String key, Object value) {
+        if (value == null) {
+            attributes.remove(key);
+        } else {
+            attributes.put(key, value);
+        }
+    }
+
+    public Object getAttribute(String key) {
+        return attributes.get(key);
+    }
+}
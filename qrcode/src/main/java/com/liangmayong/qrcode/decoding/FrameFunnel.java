@@ -0,0 +1,234 @@
+package com.liangmayong.qrcode.decoding;
+
+import com.liangmayong.qrcode.camera.CameraManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts what happened to the preview frames of one scan session, from the camera to a result:
+ * <ol>
+ * <li>delivered by the camera, of which some were unclaimed because every worker was busy;</li>
+ * <li>taken by a {@link DecodeInterceptor};</li>
+ * <li>skipped by the {@link DecodeFrameFilter}, a {@link FramePipeline} stage or because the scene
+ * had not changed;</li>
+ * <li>decoded, or cancelled because another worker found the code first;</li>
+ * <li>of the decoded ones, succeeded.</li>
+ * </ol>
+ * The scan view owns one instance; the counts start from zero when a session starts and can be
+ * read at any time, also after the session has ended. Safe to read from any thread.
+ */
+public final class FrameFunnel {
+
+    private final AtomicLong interceptedFrames = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+    private final AtomicLong decodedFrames = new AtomicLong();
+    private final AtomicLong cancelledFrames = new AtomicLong();
+    private final AtomicLong timedOutFrames = new AtomicLong();
+    private final AtomicLong succeededFrames = new AtomicLong();
+    private final AtomicLongArray failedAttempts = new AtomicLongArray(DecodeBinarizer.values().length);
+    private final AtomicLong busyNanos = new AtomicLong();
+    private volatile long startNanos;
+    private volatile long stopNanos;
+    private volatile int workerCount;
+
+    /**
+     * Clears the counts for a new session.
+     */
+    void start(int workerCount) {
+        interceptedFrames.set(0);
+        skippedFrames.set(0);
+        decodedFrames.set(0);
+        cancelledFrames.set(0);
+        timedOutFrames.set(0);
+        succeededFrames.set(0);
+        for (int i = 0; i < failedAttempts.length(); i++) {
+            failedAttempts.set(i, 0);
+        }
+        busyNanos.set(0);
+        this.workerCount = workerCount;
+        stopNanos = 0;
+        startNanos = System.nanoTime();
+    }
+
+    void stop() {
+        if (startNanos != 0 && stopNanos == 0) {
+            stopNanos = System.nanoTime();
+        }
+    }
+
+    void recordIntercepted() {
+        interceptedFrames.incrementAndGet();
+    }
+
+    void recordSkipped() {
+        skippedFrames.incrementAndGet();
+    }
+
+    void recordDecoded(boolean succeeded) {
+        decodedFrames.incrementAndGet();
+        if (succeeded) {
+            succeededFrames.incrementAndGet();
+        }
+    }
+
+    void recordCancelled() {
+        cancelledFrames.incrementAndGet();
+    }
+
+    void recordTimedOut() {
+        timedOutFrames.incrementAndGet();
+    }
+
+    void recordFailedAttempt(DecodeBinarizer binarizer) {
+        failedAttempts.incrementAndGet(binarizer.ordinal());
+    }
+
+    void recordBusy(long nanos) {
+        busyNanos.addAndGet(nanos);
+    }
+
+    long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    /**
+     * @return frames the camera delivered this session
+     */
+    public long getDeliveredFrameCount() {
+        CameraManager cameraManager = CameraManager.get();
+        return cameraManager != null ? cameraManager.getDeliveredFrameCount() : 0;
+    }
+
+    /**
+     * @return delivered frames replaced by a newer one while every worker was busy, never decoded
+     */
+    public long getUnclaimedFrameCount() {
+        CameraManager cameraManager = CameraManager.get();
+        return cameraManager != null ? cameraManager.getUnclaimedFrameCount() : 0;
+    }
+
+    /**
+     * @return frames a {@link DecodeInterceptor} took instead of the decoder
+     */
+    public long getInterceptedFrameCount() {
+        return interceptedFrames.get();
+    }
+
+    /**
+     * @return frames not decoded because they were blurred, dropped by a pipeline stage or the
+     * scene had not changed
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrames.get();
+    }
+
+    /**
+     * @return frames the decoder finished, with or without a result
+     */
+    public long getDecodedFrameCount() {
+        return decodedFrames.get();
+    }
+
+    /**
+     * @return frames whose decode was abandoned because another worker found the code first
+     */
+    public long getCancelledFrameCount() {
+        return cancelledFrames.get();
+    }
+
+    /**
+     * @return decoded frames abandoned without a result when they ran past the frame deadline;
+     * they are counted as failed too
+     */
+    public long getTimedOutFrameCount() {
+        return timedOutFrames.get();
+    }
+
+    /**
+     * @return decoded frames without a result
+     */
+    public long getFailedFrameCount() {
+        return decodedFrames.get() - succeededFrames.get();
+    }
+
+    /**
+     * @return decoded frames with at least one result
+     */
+    public long getSucceededFrameCount() {
+        return succeededFrames.get();
+    }
+
+    /**
+     * @return attempts with the given binarizer that found no code; a frame counts once per
+     * binarizer tried on it
+     */
+    public long getFailedAttemptCount(DecodeBinarizer binarizer) {
+        return failedAttempts.get(binarizer.ordinal());
+    }
+
+    /**
+     * @return length of the session so far, or of the last session once it has ended
+     */
+    public long getElapsedMillis() {
+        long start = startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long stop = stopNanos;
+        return ((stop != 0 ? stop : System.nanoTime()) - start) / 1000000L;
+    }
+
+    /**
+     * @return frames per second the camera delivered
+     */
+    public float getDeliveredFramesPerSecond() {
+        return perSecond(getDeliveredFrameCount());
+    }
+
+    /**
+     * @return frames per second the decoder actually looked at, the effective scan rate
+     */
+    public float getDecodedFramesPerSecond() {
+        return perSecond(decodedFrames.get());
+    }
+
+    /**
+     * @return share of the session the decode workers spent on frames, from 0 to 1. Well below 1
+     * means the workers were waiting for the camera; close to 1 means frames were dropped
+     * because the workers were busy.
+     */
+    public float getDecodeDutyCycle() {
+        long elapsedMillis = getElapsedMillis();
+        if (elapsedMillis <= 0 || workerCount <= 0) {
+            return 0f;
+        }
+        return Math.min(1f, busyNanos.get() / 1000000f / (elapsedMillis * workerCount));
+    }
+
+    private float perSecond(long frames) {
+        long elapsedMillis = getElapsedMillis();
+        return elapsedMillis > 0 ? frames * 1000f / elapsedMillis : 0f;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("FrameFunnel")
+                .append(" delivered=").append(getDeliveredFrameCount())
+                .append(" unclaimed=").append(getUnclaimedFrameCount())
+                .append(" intercepted=").append(getInterceptedFrameCount())
+                .append(" skipped=").append(getSkippedFrameCount())
+                .append(" decoded=").append(getDecodedFrameCount())
+                .append(" cancelled=").append(getCancelledFrameCount())
+                .append(" failed=").append(getFailedFrameCount())
+                .append(" timedOut=").append(getTimedOutFrameCount())
+                .append(" succeeded=").append(getSucceededFrameCount());
+        for (DecodeBinarizer binarizer : DecodeBinarizer.values()) {
+            builder.append(" failed.").append(binarizer).append('=').append(getFailedAttemptCount(binarizer));
+        }
+        return builder.append(" fps=").append(getDeliveredFramesPerSecond())
+                .append(" decodedFps=").append(getDecodedFramesPerSecond())
+                .append(" dutyCycle=").append(getDecodeDutyCycle())
+                .toString();
+    }
+}
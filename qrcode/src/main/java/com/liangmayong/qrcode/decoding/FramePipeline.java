@@ -0,0 +1,94 @@
+package com.liangmayong.qrcode.decoding;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The ordered {@link FrameStage}s every preview frame passes through on its way through the
+ * decoder. Within a phase stages run in the order they were added; a stage returning false ends
+ * the phase and drops the frame. The built-in steps keep their place in the order:
+ * <ol>
+ * <li>the {@link DecodeInterceptor}, if any;</li>
+ * <li>{@link FrameStage.Phase#GATE} stages;</li>
+ * <li>the {@link DecodeFrameFilter} and the static scene gate;</li>
+ * <li>{@link FrameStage.Phase#REGION} stages, then the region of interest tracker if no stage
+ * chose a region;</li>
+ * <li>{@link FrameStage.Phase#ENHANCE} stages, after the inverted decode scheduler;</li>
+ * <li>the decode;</li>
+ * <li>{@link FrameStage.Phase#POST} stages, for frames with a result.</li>
+ * </ol>
+ * The scan view owns one pipeline. Stages can be added and removed at any time, from any thread;
+ * a change applies from the next frame on.
+ */
+public final class FramePipeline {
+
+    private final List<FrameStage>[] stages;
+
+    @SuppressWarnings("unchecked")
+    public FramePipeline() {
+        stages = new List[FrameStage.Phase.values().length];
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new CopyOnWriteArrayList<FrameStage>();
+        }
+    }
+
+    /**
+     * Adds a stage to the end of a phase.
+     *
+     * @param phase phase
+     * @param stage stage
+     */
+    public void add(FrameStage.Phase phase, FrameStage stage) {
+        if (phase == null || stage == null) {
+            throw new IllegalArgumentException("Phase and stage must not be null.");
+        }
+        stages[phase.ordinal()].add(stage);
+    }
+
+    /**
+     * Removes a stage from every phase it was added to.
+     *
+     * @param stage stage
+     * @return true if the stage was in the pipeline
+     */
+    public boolean remove(FrameStage stage) {
+        boolean removed = false;
+        for (List<FrameStage> phaseStages : stages) {
+            while (phaseStages.remove(stage)) {
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every stage.
+     */
+    public void clear() {
+        for (List<FrameStage> phaseStages : stages) {
+            phaseStages.clear();
+        }
+    }
+
+    /**
+     * @param phase phase
+     * @return true if the phase has no stage
+     */
+    public boolean isEmpty(FrameStage.Phase phase) {
+        return stages[phase.ordinal()].isEmpty();
+    }
+
+    /**
+     * Runs the stages of a phase on a frame.
+     *
+     * @return false if a stage dropped the frame
+     */
+    boolean run(FrameStage.Phase phase, FrameDescriptor frame) {
+        for (FrameStage stage : stages[phase.ordinal()]) {
+            if (!stage.process(frame)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,133 @@
+package com.liangmayong.qrcode.decoding;
+
+import android.util.Log;
+
+import com.liangmayong.qrcode.camera.CameraManager;
+
+/**
+ * Matches the camera's preview frame rate to what the decode workers can take. Once a second the
+ * capture handler asks it to look at the frames of the past second in the {@link FrameFunnel}:
+ * <ul>
+ * <li>while the scene is static (with static scene gating on), or no scan is running, the camera
+ * runs at {@value #IDLE_FPS} fps;</li>
+ * <li>when most frames are dropped because every worker is busy, the rate comes down to what the
+ * workers decoded, with some headroom, but never below {@value #MIN_SCAN_FPS} fps;</li>
+ * <li>when the workers have time to spare, the rate goes up again.</li>
+ * </ul>
+ * A session starts with the camera's own default fps range, which is left alone until the rate
+ * first needs to come down below what the camera delivers, so the first result is never slowed
+ * down and auto exposure keeps its low light behaviour. Only used on the main thread.
+ */
+final class FrameRateGovernor {
+
+    private static final String TAG = FrameRateGovernor.class.getSimpleName();
+
+    static final long INTERVAL_MS = 1000L;
+    private static final int IDLE_FPS = 10;
+    private static final int MIN_SCAN_FPS = 15;
+    /**
+     * Share of delivered frames dropped above which the rate is lowered.
+     */
+    private static final float DROP_RATE_THRESHOLD = 0.25f;
+    /**
+     * Workers busier than this are considered saturated, and the rate is not raised.
+     */
+    private static final float SATURATED_DUTY_CYCLE = 0.8f;
+    private static final float HEADROOM = 1.25f;
+
+    private final FrameFunnel funnel;
+    private final SceneChangeDetector sceneChangeDetector;
+    private final int workerCount;
+    private long lastDelivered;
+    private long lastUnclaimed;
+    private long lastHandled;
+    private long lastSceneSkipped;
+    private long lastBusyNanos;
+    private long lastNanos;
+    /**
+     * The fps the camera is capped at, 0 while it runs its default range.
+     */
+    private int ceiling;
+    private boolean adjustable;
+
+    FrameRateGovernor(FrameFunnel funnel, SceneChangeDetector sceneChangeDetector, int workerCount) {
+        this.funnel = funnel;
+        this.sceneChangeDetector = sceneChangeDetector;
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Puts the camera's default fps range back, if this governor changed it, and starts a new
+     * measurement window.
+     */
+    void start() {
+        CameraManager.get().resetPreviewFpsRange();
+        ceiling = 0;
+        adjustable = true;
+        snapshot();
+    }
+
+    /**
+     * Adjusts the frame rate to the window since the last call.
+     *
+     * @param scanning whether a scan is running; if not, the camera idles
+     */
+    void update(boolean scanning) {
+        if (!adjustable) {
+            // The camera has no fps ranges to choose from, or refuses to change them.
+            return;
+        }
+        long delivered = funnel.getDeliveredFrameCount() - lastDelivered;
+        long unclaimed = funnel.getUnclaimedFrameCount() - lastUnclaimed;
+        long handled = getHandledFrameCount() - lastHandled;
+        long sceneSkipped = sceneChangeDetector.getSkippedFrameCount() - lastSceneSkipped;
+        long busyNanos = funnel.getBusyNanos() - lastBusyNanos;
+        long elapsedNanos = System.nanoTime() - lastNanos;
+        snapshot();
+        if (delivered <= 0 || elapsedNanos <= 0) {
+            return;
+        }
+
+        // Under the default range the rate is whatever the camera delivered.
+        int current = ceiling > 0 ? ceiling : Math.round(delivered * 1e9f / elapsedNanos);
+        int target = current;
+        if (!scanning || sceneSkipped * 2 > handled) {
+            target = IDLE_FPS;
+        } else if (handled > 0) {
+            // Frames per second the workers would get through if they never waited for one.
+            float capacity = handled * 1e9f * workerCount / busyNanos;
+            int matched = Math.max(MIN_SCAN_FPS, (int) Math.ceil(capacity * HEADROOM));
+            float dropRate = (float) unclaimed / delivered;
+            float dutyCycle = (float) busyNanos / (elapsedNanos * workerCount);
+            if (matched < current && dropRate > DROP_RATE_THRESHOLD) {
+                target = matched;
+            } else if (ceiling > 0 && (ceiling < MIN_SCAN_FPS
+                    || (matched > ceiling && dutyCycle < SATURATED_DUTY_CYCLE))) {
+                target = Math.max(MIN_SCAN_FPS, matched);
+            }
+        }
+        // The default range is only ever replaced to bring the rate down.
+        if (target < current || (ceiling > 0 && target != ceiling)) {
+            int applied = CameraManager.get().setPreviewFpsCeiling(target);
+            Log.d(TAG, "Preview fps ceiling " + ceiling + " -> " + applied);
+            if (applied <= 0) {
+                adjustable = false;
+            }
+            ceiling = applied;
+        }
+    }
+
+    private long getHandledFrameCount() {
+        return funnel.getInterceptedFrameCount() + funnel.getSkippedFrameCount()
+                + funnel.getDecodedFrameCount() + funnel.getCancelledFrameCount();
+    }
+
+    private void snapshot() {
+        lastDelivered = funnel.getDeliveredFrameCount();
+        lastUnclaimed = funnel.getUnclaimedFrameCount();
+        lastHandled = getHandledFrameCount();
+        lastSceneSkipped = sceneChangeDetector.getSkippedFrameCount();
+        lastBusyNanos = funnel.getBusyNanos();
+        lastNanos = System.nanoTime();
+    }
+}
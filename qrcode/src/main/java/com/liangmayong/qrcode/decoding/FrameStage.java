@@ -0,0 +1,41 @@
+package com.liangmayong.qrcode.decoding;
+
+/**
+ * One step of the {@link FramePipeline}. Stages run on the decode threads, possibly on several
+ * at once, so a stage that keeps state must be thread safe. The frame descriptor and the frame
+ * buffer behind it are only valid during the call.
+ */
+public interface FrameStage {
+
+    /**
+     * Where in the decode of a preview frame a stage runs.
+     */
+    enum Phase {
+        /**
+         * Before anything else is done with the frame, after the {@link DecodeInterceptor}.
+         * Cheap checks that drop frames not worth decoding belong here.
+         */
+        GATE,
+        /**
+         * After the built-in frame filter and scene gate. A stage may narrow the part of the
+         * framing rect that is decoded with {@link FrameDescriptor#setRegion}.
+         */
+        REGION,
+        /**
+         * Right before the decode. A stage may ask for the frame to be decoded inverted with
+         * {@link FrameDescriptor#setInverted}.
+         */
+        ENHANCE,
+        /**
+         * After a decode found at least one code. A stage may read, replace or drop results with
+         * {@link FrameDescriptor#setResults}; returning false rejects the frame as a miss.
+         */
+        POST
+    }
+
+    /**
+     * @param frame the frame being decoded
+     * @return true to go on with the frame, false to drop it
+     */
+    boolean process(FrameDescriptor frame);
+}
@@ -0,0 +1,42 @@
+package com.liangmayong.qrcode.decoding;
+
+/**
+ * Decides which preview frames are decoded inverted, for light codes on a dark background. After
+ * a given number of frames in a row decoded normally without a result, the next frame is decoded
+ * inverted; with an interval of 1 normal and inverted frames alternate. Once an inverted frame
+ * finds a code the roles swap, and inverted frames become the norm until a normal one finds a
+ * code again. Shared by every decode worker of a session.
+ */
+final class InversionScheduler {
+
+    private boolean preferInverted;
+    private int failures;
+
+    /**
+     * Claims the next frame for an inverted decode if it is due.
+     *
+     * @param interval failures before the other polarity is tried, 0 for never inverting
+     */
+    synchronized boolean shouldInvert(int interval) {
+        if (interval <= 0) {
+            return false;
+        }
+        if (failures < interval) {
+            return preferInverted;
+        }
+        failures = 0;
+        return !preferInverted;
+    }
+
+    /**
+     * Called once a frame was decoded, not for frames whose decode was cancelled.
+     */
+    synchronized void onDecodeFinished(boolean inverted, boolean found) {
+        if (found) {
+            preferInverted = inverted;
+            failures = 0;
+        } else if (inverted == preferInverted) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.liangmayong.qrcode.decoding;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of durations in nanoseconds, safe to record into from several threads
+ * at once. Buckets grow logarithmically, four per power of two from 1 microsecond up to about
+ * 17 seconds, so a percentile read from it is within about 20% of the exact value whatever its
+ * magnitude. Shorter and longer durations fall into the first and last bucket.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * 2^10 ns is about 1 us.
+     */
+    private static final int MIN_EXPONENT = 10;
+    /**
+     * 2^34 ns is about 17 s.
+     */
+    private static final int MAX_EXPONENT = 34;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return a copy of the current counts; recording goes on unaffected
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, count.get(), totalNanos.get(), maxNanos.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    private static int bucketOf(long nanos) {
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent < MIN_EXPONENT) {
+            return 0;
+        }
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        // The two bits below the leading one pick the quarter of the octave.
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest duration that falls into the given bucket
+     */
+    private static long upperBoundOf(int bucket) {
+        int exponent = MIN_EXPONENT + bucket / SUB_BUCKETS;
+        int subBucket = bucket % SUB_BUCKETS;
+        return (1L << exponent) + ((subBucket + 1L) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * A point in time copy of a histogram.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * @return number of recorded durations
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * Estimates a percentile by the upper bound of the bucket it falls into, capped at the
+         * largest recorded duration.
+         *
+         * @param percentile percentile between 0 and 100, e.g. 99
+         * @return the estimate in nanoseconds, 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBoundOf(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count
+                    + " mean=" + getMeanNanos() / 1000 + "us"
+                    + " p50=" + getPercentileNanos(50) / 1000 + "us"
+                    + " p95=" + getPercentileNanos(95) / 1000 + "us"
+                    + " p99=" + getPercentileNanos(99) / 1000 + "us"
+                    + " max=" + maxNanos / 1000 + "us";
+        }
+    }
+}
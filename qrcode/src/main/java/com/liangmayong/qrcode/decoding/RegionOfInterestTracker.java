@@ -0,0 +1,170 @@
+package com.liangmayong.qrcode.decoding;
+
+import android.graphics.Rect;
+
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+
+/**
+ * Narrows the decode down to the part of the framing rect where the last frames showed a code.
+ * While decoding, ZXing reports finder pattern candidates through a {@link PointCollector}; when a
+ * frame yields candidates but no result, the next frames decode only a padded box around them.
+ * After a number of misses in a row the whole framing rect is decoded again.
+ * <p>
+ * Regions are in the coordinates of the rotated framing rect crop. Shared by all decode workers of
+ * a session.
+ */
+final class RegionOfInterestTracker {
+
+    /**
+     * Candidates needed for a region; a single finder pattern says too little about the code.
+     */
+    private static final int MIN_POINTS = 2;
+    private static final int MIN_PADDING = 32;
+    /**
+     * A region covering more than this share of the crop is not worth the switch.
+     */
+    private static final float MAX_REGION_AREA_RATIO = 0.6f;
+
+    private Rect region;
+    private int misses;
+
+    /**
+     * @return the region the next frame should be decoded in, or null for the whole crop
+     */
+    synchronized Rect getRegion(int cropWidth, int cropHeight) {
+        if (region == null || region.right > cropWidth || region.bottom > cropHeight) {
+            return null;
+        }
+        return new Rect(region);
+    }
+
+    /**
+     * Updates the region from the candidates a decode saw. Cancelled decodes are not reported.
+     *
+     * @param collector the collector the decode reported its candidates to
+     * @param found     whether the decode found a code
+     * @param maxMisses failed decodes of a region before the whole crop is decoded again
+     */
+    synchronized void onFrameDecoded(PointCollector collector, boolean found, int cropWidth,
+                                     int cropHeight, int maxMisses) {
+        boolean regionDecode = collector.isRegionDecode();
+        if (found) {
+            region = null;
+            misses = 0;
+            return;
+        }
+        if (regionDecode && ++misses >= maxMisses) {
+            region = null;
+            misses = 0;
+            return;
+        }
+        Rect bounds = collector.getBounds(cropWidth, cropHeight);
+        if (bounds != null) {
+            if (!regionDecode) {
+                misses = 0;
+            }
+            region = bounds;
+        }
+    }
+
+    /**
+     * Forwards ZXing's result point candidates to the viewfinder in crop coordinates and keeps
+     * the bounding box of the candidates of the current frame. Owned by one decode worker, but
+     * its racing attempts may report concurrently.
+     */
+    static final class PointCollector implements ResultPointCallback {
+
+        private final ResultPointCallback delegate;
+        private int offsetX;
+        private int offsetY;
+        private int scale = 1;
+        private boolean regionDecode;
+        private int count;
+        private float minX;
+        private float minY;
+        private float maxX;
+        private float maxY;
+
+        PointCollector(ResultPointCallback delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Starts collecting for a new frame.
+         *
+         * @param region the region the frame is decoded in, or null for the whole crop
+         */
+        synchronized void startFrame(Rect region) {
+            regionDecode = region != null;
+            offsetX = region != null ? region.left : 0;
+            offsetY = region != null ? region.top : 0;
+            scale = 1;
+            count = 0;
+        }
+
+        /**
+         * Sets the downsampling factor of the source decoded next, see
+         * {@link com.liangmayong.qrcode.camera.DownsampledLuminanceSource}. Candidates already
+         * collected for the frame are kept.
+         */
+        synchronized void setScale(int scale) {
+            this.scale = scale;
+        }
+
+        synchronized int getPointCount() {
+            return count;
+        }
+
+        synchronized boolean isRegionDecode() {
+            return regionDecode;
+        }
+
+        @Override
+        public void foundPossibleResultPoint(ResultPoint point) {
+            float x;
+            float y;
+            synchronized (this) {
+                x = point.getX() * scale + offsetX;
+                y = point.getY() * scale + offsetY;
+                if (count == 0) {
+                    minX = maxX = x;
+                    minY = maxY = y;
+                } else {
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                }
+                count++;
+            }
+            if (delegate != null) {
+                delegate.foundPossibleResultPoint(x == point.getX() && y == point.getY()
+                        ? point : new ResultPoint(x, y));
+            }
+        }
+
+        /**
+         * @return the padded bounding box of this frame's candidates, or null if there are too
+         * few of them or the box would cover most of the crop anyway
+         */
+        synchronized Rect getBounds(int cropWidth, int cropHeight) {
+            if (count < MIN_POINTS) {
+                return null;
+            }
+            // Finder patterns sit in the corners of a code, a box around two of them may miss
+            // the third by the full distance between them.
+            int padding = (int) Math.max(maxX - minX, maxY - minY) + MIN_PADDING;
+            Rect bounds = new Rect(
+                    Math.max(0, (int) minX - padding),
+                    Math.max(0, (int) minY - padding),
+                    Math.min(cropWidth, (int) maxX + padding),
+                    Math.min(cropHeight, (int) maxY + padding));
+            if (bounds.isEmpty()
+                    || bounds.width() * bounds.height() > MAX_REGION_AREA_RATIO * cropWidth * cropHeight) {
+                return null;
+            }
+            return bounds;
+        }
+    }
+}
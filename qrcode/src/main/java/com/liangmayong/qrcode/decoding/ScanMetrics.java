@@ -0,0 +1,94 @@
+package com.liangmayong.qrcode.decoding;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Latency of each stage of the live decode loop, one {@link LatencyHistogram} per stage. The
+ * scan view owns one instance for its lifetime, so the numbers add up over scan sessions until
+ * {@link #reset()} is called. Memory use is fixed however long the view scans.
+ */
+public final class ScanMetrics {
+
+    public enum Stage {
+        /**
+         * Rotating the framing rect out of the camera frame, once per frame.
+         */
+        ROTATE_CROP,
+        /**
+         * Downsampling the rotated crop for the coarse pass in pyramid mode, once per coarse frame.
+         */
+        DOWNSAMPLE,
+        /**
+         * Turning the luminance into black and white, per binarizer attempt.
+         */
+        BINARIZE,
+        /**
+         * Reader attempts that found no code. ZXing detects and decodes in one call, so a failed
+         * attempt is counted as detection.
+         */
+        DETECT,
+        /**
+         * Reader attempts that found a code, detection included.
+         */
+        DECODE,
+        /**
+         * Rendering the thumbnail of a found code.
+         */
+        THUMBNAIL,
+        /**
+         * From a worker posting a result until the main thread handles it.
+         */
+        DISPATCH,
+        /**
+         * Everything a worker does with one frame, from the crop to the posted result or miss.
+         */
+        FRAME
+    }
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+
+    public ScanMetrics() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    void record(Stage stage, long nanos) {
+        histograms.get(stage).record(nanos);
+    }
+
+    /**
+     * @return a copy of the durations recorded for the stage so far
+     */
+    public LatencyHistogram.Snapshot getSnapshot(Stage stage) {
+        return histograms.get(stage).snapshot();
+    }
+
+    /**
+     * @return a copy of the durations of every stage
+     */
+    public Map<Stage, LatencyHistogram.Snapshot> getSnapshots() {
+        Map<Stage, LatencyHistogram.Snapshot> snapshots =
+                new EnumMap<Stage, LatencyHistogram.Snapshot>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            snapshots.put(stage, getSnapshot(stage));
+        }
+        return snapshots;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("ScanMetrics");
+        for (Stage stage : Stage.values()) {
+            builder.append('\n').append(stage).append(": ").append(getSnapshot(stage));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package com.liangmayong.qrcode.decoding;
+
+import android.graphics.Rect;
+
+import com.liangmayong.qrcode.camera.PreviewFrame;
+
+/**
+ * Notices when the camera keeps looking at the same scene. Each frame is reduced to a
+ * {@value #GRID_SIZE}x{@value #GRID_SIZE} grid of mean luminances inside the framing rect and
+ * compared with the grid of the last frame that was decoded. While the scene has not changed
+ * since a decode that found nothing, decoding it again would only find nothing again, so such
+ * frames are only decoded once per {@value #STATIC_DECODE_INTERVAL_MS} ms, in case focus or
+ * exposure has improved in the meantime.
+ * <p>
+ * Shared by all decode workers of a session.
+ */
+final class SceneChangeDetector {
+
+    static final int GRID_SIZE = 16;
+    private static final int SAMPLES_PER_CELL_SIDE = 4;
+    /**
+     * Mean absolute change per grid cell, in luminance levels, that counts as a new scene.
+     */
+    private static final int CHANGE_THRESHOLD = 6;
+    private static final long STATIC_DECODE_INTERVAL_MS = 1000L;
+
+    private final int[] lastSignature = new int[GRID_SIZE * GRID_SIZE];
+    private boolean hasSignature;
+    private boolean lastDecodeFailed;
+    private long lastDecodeTime;
+    private long skippedFrameCount;
+
+    /**
+     * @return a buffer for {@link #shouldDecode}, one per worker
+     */
+    static int[] newSignature() {
+        return new int[GRID_SIZE * GRID_SIZE];
+    }
+
+    /**
+     * Decides whether a frame is worth decoding. If it is, it becomes the frame later frames are
+     * compared with.
+     *
+     * @param signature a buffer from {@link #newSignature()}
+     */
+    boolean shouldDecode(PreviewFrame frame, Rect framingRect, int[] signature) {
+        computeSignature(frame, framingRect, signature);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (hasSignature && lastDecodeFailed
+                    && now - lastDecodeTime < STATIC_DECODE_INTERVAL_MS
+                    && difference(signature, lastSignature) < CHANGE_THRESHOLD) {
+                skippedFrameCount++;
+                return false;
+            }
+            System.arraycopy(signature, 0, lastSignature, 0, lastSignature.length);
+            hasSignature = true;
+            lastDecodeFailed = false;
+            lastDecodeTime = now;
+            return true;
+        }
+    }
+
+    /**
+     * Reports the outcome of a decode that {@link #shouldDecode} let through. Cancelled decodes
+     * are not reported.
+     */
+    synchronized void onDecodeFinished(boolean found) {
+        lastDecodeFailed = !found;
+        if (found) {
+            // The next scan starts from scratch.
+            hasSignature = false;
+        }
+    }
+
+    synchronized long getSkippedFrameCount() {
+        return skippedFrameCount;
+    }
+
+    private static void computeSignature(PreviewFrame frame, Rect framingRect, int[] signature) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int left = Math.max(framingRect.left, 0);
+        int top = Math.max(framingRect.top, 0);
+        int cellWidth = Math.max(1, (Math.min(framingRect.right, width) - left) / GRID_SIZE);
+        int cellHeight = Math.max(1, (Math.min(framingRect.bottom, height) - top) / GRID_SIZE);
+        int stepX = Math.max(1, cellWidth / SAMPLES_PER_CELL_SIDE);
+        int stepY = Math.max(1, cellHeight / SAMPLES_PER_CELL_SIDE);
+        for (int cellY = 0; cellY < GRID_SIZE; cellY++) {
+            int cellTop = top + cellY * cellHeight;
+            for (int cellX = 0; cellX < GRID_SIZE; cellX++) {
+                int cellLeft = left + cellX * cellWidth;
+                int sum = 0;
+                int count = 0;
+                for (int y = cellTop; y < cellTop + cellHeight && y < height; y += stepY) {
+                    for (int x = cellLeft; x < cellLeft + cellWidth && x < width; x += stepX) {
+                        sum += frame.getLuminance(x, y);
+                        count++;
+                    }
+                }
+                signature[cellY * GRID_SIZE + cellX] = count == 0 ? 0 : sum / count;
+            }
+        }
+    }
+
+    private static int difference(int[] signature, int[] other) {
+        int total = 0;
+        for (int i = 0; i < signature.length; i++) {
+            total += Math.abs(signature[i] - other[i]);
+        }
+        return total / signature.length;
+    }
+}
@@ -0,0 +1,134 @@
+package com.liangmayong.qrcode.decoding;
+
+import android.graphics.Rect;
+
+import com.liangmayong.qrcode.camera.PreviewFrame;
+
+/**
+ * Skips frames that are too blurry or too flat to hold a readable code, e.g. while the user is
+ * still moving the phone or autofocus is hunting.
+ * <p>
+ * The framing rect is sampled on a grid of about {@value #SAMPLES_PER_SIDE} points per side. The
+ * contrast is the standard deviation of the samples, and the sharpness is the mean squared
+ * gradient between neighbouring samples divided by their variance, so it does not depend on how
+ * bright or contrasty the scene is. A frame is rejected if its contrast is below a fixed minimum
+ * or its sharpness is well below the sharpest frame seen recently. That peak decays with every
+ * frame, so the threshold follows the scene, and after a few rejects in a row a frame is let
+ * through anyway so a scene that never gets sharper is still decoded. The peak is forgotten when
+ * a new scan session starts.
+ */
+public class SharpnessFrameFilter implements DecodeFrameFilter {
+
+    private static final int SAMPLES_PER_SIDE = 64;
+    private static final float PEAK_DECAY = 0.9f;
+
+    public static final float DEFAULT_SHARPNESS_RATIO = 0.4f;
+    public static final int DEFAULT_MIN_CONTRAST = 10;
+    public static final int DEFAULT_MAX_CONSECUTIVE_REJECTS = 4;
+
+    private final float sharpnessRatio;
+    private final int minContrast;
+    private final int maxConsecutiveRejects;
+    private float peakSharpness;
+    private int consecutiveRejects;
+    private long rejectedFrameCount;
+
+    public SharpnessFrameFilter() {
+        this(DEFAULT_SHARPNESS_RATIO, DEFAULT_MIN_CONTRAST, DEFAULT_MAX_CONSECUTIVE_REJECTS);
+    }
+
+    /**
+     * @param sharpnessRatio        fraction of the recent peak sharpness a frame needs
+     * @param minContrast           minimum standard deviation of the luminance, 0 - 255
+     * @param maxConsecutiveRejects frames rejected in a row before one is let through anyway
+     */
+    public SharpnessFrameFilter(float sharpnessRatio, int minContrast, int maxConsecutiveRejects) {
+        this.sharpnessRatio = sharpnessRatio;
+        this.minContrast = minContrast;
+        this.maxConsecutiveRejects = maxConsecutiveRejects;
+    }
+
+    /**
+     * Checks a frame held in an array, through {@link #accept(PreviewFrame, Rect)}, which is
+     * the one to override.
+     *
+     * @param data        the unrotated preview frame, Y plane first with rows as wide as the frame
+     * @param width       the width of the preview frame
+     * @param height      the height of the preview frame
+     * @param framingRect the framing rect in the coordinates of the unrotated frame
+     * @return true to decode the frame, false to skip it
+     */
+    public final boolean accept(byte[] data, int width, int height, Rect framingRect) {
+        return accept(new PreviewFrame(data, width, height, 0L), framingRect);
+    }
+
+    /**
+     * Samples the frame where it is, so a frame whose Y plane is in a buffer is not copied into
+     * an array first.
+     */
+    @Override
+    public boolean accept(PreviewFrame frame, Rect framingRect) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int left = Math.max(framingRect.left, 0);
+        int top = Math.max(framingRect.top, 0);
+        int right = Math.min(framingRect.right, width);
+        int bottom = Math.min(framingRect.bottom, height);
+        int step = Math.max(1, Math.min(right - left, bottom - top) / SAMPLES_PER_SIDE);
+
+        long sum = 0;
+        long sumSquares = 0;
+        long gradientEnergy = 0;
+        int count = 0;
+        for (int y = top; y + step < bottom; y += step) {
+            for (int x = left; x + step < right; x += step) {
+                int pixel = frame.getLuminance(x, y);
+                int dx = frame.getLuminance(x + step, y) - pixel;
+                int dy = frame.getLuminance(x, y + step) - pixel;
+                sum += pixel;
+                sumSquares += pixel * pixel;
+                gradientEnergy += dx * dx + dy * dy;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return true;
+        }
+        float mean = (float) sum / count;
+        float variance = (float) sumSquares / count - mean * mean;
+        boolean flat = variance < (float) minContrast * minContrast;
+        float sharpness = flat ? 0f : gradientEnergy / (count * variance);
+        return update(flat, sharpness);
+    }
+
+    private synchronized boolean update(boolean flat, float sharpness) {
+        peakSharpness = Math.max(peakSharpness * PEAK_DECAY, sharpness);
+        boolean accepted = !flat && sharpness >= peakSharpness * sharpnessRatio;
+        if (accepted || consecutiveRejects >= maxConsecutiveRejects) {
+            consecutiveRejects = 0;
+            return true;
+        }
+        consecutiveRejects++;
+        rejectedFrameCount++;
+        return false;
+    }
+
+    /**
+     * Forgets the peak sharpness and the rejects in a row, so a new session does not start out
+     * judged against the last one's sharpest frame.
+     */
+    @Override
+    public synchronized void reset() {
+        peakSharpness = 0f;
+        consecutiveRejects = 0;
+    }
+
+    /**
+     * getRejectedFrameCount
+     *
+     * @return number of frames skipped since this filter was created
+     */
+    public synchronized long getRejectedFrameCount() {
+        return rejectedFrameCount;
+    }
+}
@@ -0,0 +1,61 @@
+package com.liangmayong.qrcode.decoding;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Adds up the time another binarizer spends, so the binarization can be told apart from the
+ * detection and decoding a reader does around it. Binarizers created for crops of the image add
+ * to the same total. Not thread safe.
+ */
+final class TimedBinarizer extends Binarizer {
+
+    private final Binarizer delegate;
+    private final TimedBinarizer root;
+    private long nanos;
+
+    TimedBinarizer(Binarizer delegate) {
+        this(delegate, null);
+    }
+
+    private TimedBinarizer(Binarizer delegate, TimedBinarizer root) {
+        super(delegate.getLuminanceSource());
+        this.delegate = delegate;
+        this.root = root != null ? root : this;
+    }
+
+    @Override
+    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getBlackRow(y, row);
+        } finally {
+            root.nanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getBlackMatrix();
+        } finally {
+            root.nanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public Binarizer createBinarizer(LuminanceSource source) {
+        return new TimedBinarizer(delegate.createBinarizer(source), root);
+    }
+
+    /**
+     * @return nanoseconds spent binarizing so far, crops included
+     */
+    long getNanos() {
+        return root.nanos;
+    }
+}
@@ -24,11 +24,21 @@ import android.widget.TextView;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.Result;
 import com.liangmayong.qrcode.R;
+import com.liangmayong.qrcode.camera.CameraBackend;
 import com.liangmayong.qrcode.camera.CameraManager;
 import com.liangmayong.qrcode.decoding.DecodeCaptureViewHandler;
+import com.liangmayong.qrcode.decoding.DecodeFrameFilter;
 import com.liangmayong.qrcode.decoding.DecodeInterceptor;
+import com.liangmayong.qrcode.decoding.DecodeOptions;
+import com.liangmayong.qrcode.decoding.DecodeResultStore;
 import com.liangmayong.qrcode.decoding.DecodeScanInterface;
+import com.liangmayong.qrcode.decoding.DecodeStatistics;
+import com.liangmayong.qrcode.decoding.FrameFunnel;
+import com.liangmayong.qrcode.decoding.FramePipeline;
+import com.liangmayong.qrcode.decoding.FrameStage;
 import com.liangmayong.qrcode.decoding.InactivityTimer;
+import com.liangmayong.qrcode.decoding.ScanMetrics;
+import com.liangmayong.qrcode.decoding.SharpnessFrameFilter;
 
 import java.io.IOException;
 import java.util.Vector;
@@ -39,10 +49,25 @@ public class DecodeScanView extends FrameLayout implements SurfaceHolder.Callbac
         boolean handleDecode(Result result, Bitmap barcode);
     }
 
+    public interface OnDecodeMultipleScanListener {
+        /**
+         * @return true to keep scanning
+         */
+        boolean handleDecode(Result[] results, Bitmap barcode);
+    }
+
     public interface OnOpenCameraListener {
         void onOpen(DecodeScanView scanView);
     }
 
+    public interface OnCameraErrorListener {
+        /**
+         * Called when the camera stopped the preview by itself. Reopen it with onPause and
+         * onResume, or leave the scan.
+         */
+        void onCameraError(DecodeScanView scanView);
+    }
+
     public interface OnResultIntentListener {
         Intent onResultIntent(Result result, Bitmap barcode);
     }
@@ -59,9 +84,16 @@ public class DecodeScanView extends FrameLayout implements SurfaceHolder.Callbac
     private InactivityTimer inactivityTimer;
     private Activity activity;
     private OnDecodeScanListener decodeScanListener;
+    private OnDecodeMultipleScanListener decodeMultipleScanListener;
     private OnOpenCameraListener openCameraListener;
+    private OnCameraErrorListener cameraErrorListener;
     private OnResultIntentListener resultIntentListener;
     private DecodeInterceptor interceptor;
+    private DecodeFrameFilter frameFilter;
+    private final DecodeOptions decodeOptions = new DecodeOptions();
+    private final ScanMetrics scanMetrics = new ScanMetrics();
+    private final FrameFunnel frameFunnel = new FrameFunnel();
+    private final FramePipeline framePipeline = new FramePipeline();
     private float beepVolume = 0.10f;
     private long vibrateDuration = 200L;
     private int resultCode = Activity.RESULT_OK;
@@ -278,6 +310,32 @@ public class DecodeScanView extends FrameLayout implements SurfaceHolder.Callbac
         CameraManager.get().setWithoutStatusBar(withoutStatusBar);
     }
 
+    /**
+     * setCameraBackend
+     * <p>
+     * Takes preview frames from another backend than the old camera API, e.g.
+     * {@code new Camera2Backend(context)} where {@code Camera2Backend.isSupported(context)}
+     * holds. Call it before the view is shown, or while it is paused.
+     *
+     * @param backend backend, null for the old camera API default = null
+     */
+    public void setCameraBackend(CameraBackend backend) {
+        CameraManager.get().setCameraBackend(backend);
+    }
+
+    /**
+     * setPreviewSizeCalibration
+     * <p>
+     * Measures once per device model which preview size decodes best and uses it from the next
+     * start of the app on. The measurement runs while the camera is closed, after a scan.
+     * Call it before the view is shown.
+     *
+     * @param previewSizeCalibration previewSizeCalibration default = false
+     */
+    public void setPreviewSizeCalibration(boolean previewSizeCalibration) {
+        CameraManager.get().setPreviewSizeCalibration(previewSizeCalibration);
+    }
+
     /**
      * setScreenRate
      *
@@ -307,6 +365,9 @@ public class DecodeScanView extends FrameLayout implements SurfaceHolder.Callbac
      */
     public void onResume(Activity activity) {
         this.activity = activity;
+        if (decodeOptions.isPersistDecodeStatistics()) {
+            DecodeStatistics.getInstance().restore(activity);
+        }
         inactivityTimer = new InactivityTimer(activity);
         SurfaceHolder surfaceHolder = surfaceView.getHolder();
         if (hasSurface) {
@@ -338,6 +399,9 @@ public class DecodeScanView extends FrameLayout implements SurfaceHolder.Callbac
             handler = null;
         }
         CameraManager.get().closeDriver();
+        if (decodeOptions.isPersistDecodeStatistics()) {
+            DecodeStatistics.getInstance().save(activity);
+        }
     }
 
     /**
@@ -380,7 +444,9 @@ public class DecodeScanView extends FrameLayout implements SurfaceHolder.Callbac
                     bundle.putString("result", resultString);
                     bundle.putString("format", formatString);
                     bundle.putLong("time", decode_time);
-                    bundle.putParcelable("bitmap", barcode);
+                    // Only a handle travels with the intent; the bitmap stays in this process.
+                    bundle.putString(DecodeResultStore.EXTRA_BITMAP_HANDLE,
+                            DecodeResultStore.getInstance().put(barcode));
                     resultIntent.putExtras(bundle);
                 }
                 activity.setResult(resultCode, resultIntent);
@@ -390,6 +456,27 @@ public class DecodeScanView extends FrameLayout implements SurfaceHolder.Callbac
     }
 
 
+    @Override
+    public boolean handleDecodeMultiple(Result[] results, Bitmap barcode, long decode_time) {
+        if (decodeMultipleScanListener != null) {
+            inactivityTimer.onActivity();
+            playBeepSoundAndVibrate();
+            return decodeMultipleScanListener.handleDecode(results, barcode);
+        }
+        if (decodeOptions.isContinuousScanning()) {
+            inactivityTimer.onActivity();
+            playBeepSoundAndVibrate();
+            if (decodeScanListener != null) {
+                for (Result result : results) {
+                    decodeScanListener.handleDecode(result, barcode);
+                }
+            }
+            return true;
+        }
+        handleDecode(results[0], barcode, decode_time);
+        return false;
+    }
+
     /**
      * setDecodeInterceptor
      *
@@ -399,6 +486,205 @@ public class DecodeScanView extends FrameLayout implements SurfaceHolder.Callbac
         this.interceptor = interceptor;
     }
 
+    /**
+     * setDecodeFrameFilter
+     * <p>
+     * Skips frames before they are decoded, e.g. a {@link SharpnessFrameFilter} for blurry or
+     * flat ones. Pass null to decode every frame.
+     *
+     * @param frameFilter frameFilter default = null
+     */
+    public void setDecodeFrameFilter(DecodeFrameFilter frameFilter) {
+        this.frameFilter = frameFilter;
+    }
+
+    /**
+     * addFrameStage
+     * <p>
+     * Adds a step to the decode of every preview frame, see {@link FramePipeline}.
+     *
+     * @param phase phase
+     * @param stage stage
+     */
+    public void addFrameStage(FrameStage.Phase phase, FrameStage stage) {
+        framePipeline.add(phase, stage);
+    }
+
+    /**
+     * setDecodeWorkerCount
+     * <p>
+     * Number of threads decoding preview frames in parallel. Takes effect the
+     * next time the camera is opened.
+     *
+     * @param decodeWorkerCount decodeWorkerCount default = cores - 1, at most 4
+     */
+    public void setDecodeWorkerCount(int decodeWorkerCount) {
+        decodeOptions.setDecodeWorkerCount(decodeWorkerCount);
+    }
+
+    /**
+     * setBinarizerRacing
+     * <p>
+     * Runs both binarizers in parallel on every frame, the first result wins.
+     *
+     * @param binarizerRacing binarizerRacing default = false
+     */
+    public void setBinarizerRacing(boolean binarizerRacing) {
+        decodeOptions.setBinarizerRacing(binarizerRacing);
+    }
+
+    /**
+     * setInvertedBinarizerRacing
+     * <p>
+     * Adds an inverted-luminance attempt to the race, for white-on-black codes.
+     *
+     * @param invertedBinarizerRacing invertedBinarizerRacing default = false
+     */
+    public void setInvertedBinarizerRacing(boolean invertedBinarizerRacing) {
+        decodeOptions.setInvertedBinarizerRacing(invertedBinarizerRacing);
+    }
+
+    /**
+     * setPersistDecodeStatistics
+     * <p>
+     * Keeps the learned binarizer and format order across sessions.
+     *
+     * @param persistDecodeStatistics persistDecodeStatistics default = false
+     */
+    public void setPersistDecodeStatistics(boolean persistDecodeStatistics) {
+        decodeOptions.setPersistDecodeStatistics(persistDecodeStatistics);
+    }
+
+    /**
+     * setResultThumbnail
+     * <p>
+     * Skips rendering the thumbnail of the decoded frame when no listener needs it; the barcode
+     * bitmap passed on is then null.
+     *
+     * @param resultThumbnail resultThumbnail default = true
+     */
+    public void setResultThumbnail(boolean resultThumbnail) {
+        decodeOptions.setResultThumbnail(resultThumbnail);
+    }
+
+    /**
+     * setAdaptiveFrameRate
+     * <p>
+     * Lowers the preview frame rate to what the decoder can take, and further while idle.
+     *
+     * @param adaptiveFrameRate adaptiveFrameRate default = true
+     */
+    public void setAdaptiveFrameRate(boolean adaptiveFrameRate) {
+        decodeOptions.setAdaptiveFrameRate(adaptiveFrameRate);
+    }
+
+    /**
+     * setStaticSceneGating
+     * <p>
+     * Decodes an unchanged scene only about once a second after a decode found nothing.
+     *
+     * @param staticSceneGating staticSceneGating default = false
+     */
+    public void setStaticSceneGating(boolean staticSceneGating) {
+        decodeOptions.setStaticSceneGating(staticSceneGating);
+    }
+
+    /**
+     * setFrameDeadlineMillis
+     * <p>
+     * Abandons the decode of a frame that takes longer than this, so newer frames are not kept
+     * waiting. 0 turns it off.
+     *
+     * @param frameDeadlineMillis frameDeadlineMillis default = 400
+     */
+    public void setFrameDeadlineMillis(long frameDeadlineMillis) {
+        decodeOptions.setFrameDeadlineMillis(frameDeadlineMillis);
+    }
+
+    /**
+     * setInvertedDecodeInterval
+     * <p>
+     * Decodes a frame inverted, for light codes on a dark background, after this many frames
+     * without a result. 1 alternates normal and inverted frames, 0 turns it off.
+     *
+     * @param invertedDecodeInterval invertedDecodeInterval default = 3
+     */
+    public void setInvertedDecodeInterval(int invertedDecodeInterval) {
+        decodeOptions.setInvertedDecodeInterval(invertedDecodeInterval);
+    }
+
+    /**
+     * setRegionOfInterestMaxMisses
+     * <p>
+     * Decodes a box around the finder patterns of a partly visible code for up to this many
+     * frames before decoding the whole frame again. 0 turns it off.
+     *
+     * @param regionOfInterestMaxMisses regionOfInterestMaxMisses default = 3
+     */
+    public void setRegionOfInterestMaxMisses(int regionOfInterestMaxMisses) {
+        decodeOptions.setRegionOfInterestMaxMisses(regionOfInterestMaxMisses);
+    }
+
+    /**
+     * setPyramidScale
+     * <p>
+     * Tries a half (2) or quarter (4) resolution pass before the full resolution one.
+     *
+     * @param pyramidScale pyramidScale default = 1
+     */
+    public void setPyramidScale(int pyramidScale) {
+        decodeOptions.setPyramidScale(pyramidScale);
+    }
+
+    /**
+     * setMultipleBarcodeDecoding
+     * <p>
+     * Reports every code in a frame through {@link OnDecodeMultipleScanListener} and keeps
+     * scanning.
+     *
+     * @param multipleBarcodeDecoding multipleBarcodeDecoding default = false
+     */
+    public void setMultipleBarcodeDecoding(boolean multipleBarcodeDecoding) {
+        decodeOptions.setMultipleBarcodeDecoding(multipleBarcodeDecoding);
+    }
+
+    /**
+     * setContinuousScanning
+     * <p>
+     * Keeps scanning after a code was found instead of finishing the activity. Every code goes
+     * to {@link OnDecodeScanListener} (or {@link OnDecodeMultipleScanListener}) once per time
+     * window for as long as it stays in view.
+     *
+     * @param continuousScanning continuousScanning default = false
+     */
+    public void setContinuousScanning(boolean continuousScanning) {
+        decodeOptions.setContinuousScanning(continuousScanning);
+    }
+
+    /**
+     * setResultCacheTtlMillis
+     * <p>
+     * How long a code is not reported again in continuous or multiple barcode scanning.
+     * Takes effect the next time the camera is opened.
+     *
+     * @param resultCacheTtlMillis resultCacheTtlMillis default = 5000
+     */
+    public void setResultCacheTtlMillis(long resultCacheTtlMillis) {
+        decodeOptions.setResultCacheTtlMillis(resultCacheTtlMillis);
+    }
+
+    /**
+     * getSkippedFrameCount
+     *
+     * @return frames of the current scan session skipped because the scene had not changed
+     */
+    public long getSkippedFrameCount() {
+        if (handler != null) {
+            return handler.getSkippedFrameCount();
+        }
+        return 0;
+    }
+
     /**
      * setOnDecodeScanListener
      *
@@ -408,6 +694,15 @@ public class DecodeScanView extends FrameLayout implements SurfaceHolder.Callbac
         this.decodeScanListener = decodeScanListener;
     }
 
+    /**
+     * setOnDecodeMultipleScanListener
+     *
+     * @param decodeMultipleScanListener decodeMultipleScanListener
+     */
+    public void setOnDecodeMultipleScanListener(OnDecodeMultipleScanListener decodeMultipleScanListener) {
+        this.decodeMultipleScanListener = decodeMultipleScanListener;
+    }
+
     /**
      * setOnResultIntentListener
      *
@@ -426,6 +721,15 @@ public class DecodeScanView extends FrameLayout implements SurfaceHolder.Callbac
         this.openCameraListener = openCameraListener;
     }
 
+    /**
+     * setOnCameraErrorListener
+     *
+     * @param cameraErrorListener cameraErrorListener
+     */
+    public void setOnCameraErrorListener(OnCameraErrorListener cameraErrorListener) {
+        this.cameraErrorListener = cameraErrorListener;
+    }
+
     /**
      * restartPreview
      */
@@ -542,11 +846,66 @@ public class DecodeScanView extends FrameLayout implements SurfaceHolder.Callbac
         viewfinderView.drawViewfinder();
     }
 
+    @Override
+    public void onCameraError() {
+        if (cameraErrorListener != null) {
+            cameraErrorListener.onCameraError(this);
+        }
+    }
+
     @Override
     public DecodeInterceptor getDecodeInterceptor() {
         return interceptor;
     }
 
+    @Override
+    public DecodeFrameFilter getDecodeFrameFilter() {
+        return frameFilter;
+    }
+
+    @Override
+    public DecodeOptions getDecodeOptions() {
+        return decodeOptions;
+    }
+
+    /**
+     * getScanMetrics
+     * <p>
+     * Latency of each decode stage, collected over the life of this view.
+     *
+     * @return scan metrics
+     */
+    @Override
+    public ScanMetrics getScanMetrics() {
+        return scanMetrics;
+    }
+
+    /**
+     * getFrameFunnel
+     * <p>
+     * What happened to the camera frames of the current or last scan session: delivered,
+     * dropped, skipped, decoded and succeeded, with the effective frame rate and how busy the
+     * decode workers were.
+     *
+     * @return frame funnel
+     */
+    @Override
+    public FrameFunnel getFrameFunnel() {
+        return frameFunnel;
+    }
+
+    /**
+     * getFramePipeline
+     * <p>
+     * The stages every preview frame passes through on the decode threads.
+     *
+     * @return frame pipeline
+     */
+    @Override
+    public FramePipeline getFramePipeline() {
+        return framePipeline;
+    }
+
     private void initBeepSound() {
         if (playBeep && mediaPlayer == null) {
             if (activity != null) {
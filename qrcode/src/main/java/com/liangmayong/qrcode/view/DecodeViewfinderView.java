@@ -231,12 +231,18 @@ public final class DecodeViewfinderView extends View {
     }
 
     private void drawResultPoint(Canvas canvas, RectF frame) {
-        Collection<ResultPoint> currentPossible = possibleResultPoints;
+        Collection<ResultPoint> currentPossible;
         Collection<ResultPoint> currentLast = lastPossibleResultPoints;
+        // Several decode workers add points concurrently, swap the set under the same lock.
+        synchronized (this) {
+            currentPossible = possibleResultPoints;
+            if (!currentPossible.isEmpty()) {
+                possibleResultPoints = new HashSet<ResultPoint>(5);
+            }
+        }
         if (currentPossible.isEmpty()) {
             lastPossibleResultPoints = null;
         } else {
-            possibleResultPoints = new HashSet<ResultPoint>(5);
             lastPossibleResultPoints = currentPossible;
             paint.setAlpha(OPAQUE);
             paint.setColor(resultPointColor);
@@ -392,7 +398,7 @@ public final class DecodeViewfinderView extends View {
         invalidate();
     }
 
-    public void addPossibleResultPoint(ResultPoint point) {
+    public synchronized void addPossibleResultPoint(ResultPoint point) {
         possibleResultPoints.add(point);
     }
 
@@ -0,0 +1,71 @@
+package com.liangmayong.qrcode;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A small timing harness for the benchmarks in the unit test sources, run on the desktop JVM
+ * with {@code ./gradlew :qrcode:benchmark -Pbenchmark=<class>}, see qrcode/build.gradle. Each
+ * operation is warmed up until the JIT has compiled it, then timed in rounds; the median round
+ * is reported, which a GC pause or a stray compile in one round does not move.
+ * <p>
+ * The numbers compare variants on one machine. They say little about a phone, whose caches and
+ * memory bandwidth differ, but a variant that loses on the desktop rarely wins on a phone.
+ */
+public final class Benchmark {
+
+    public interface Operation {
+        /**
+         * @return anything derived from the work, so the JIT cannot drop it
+         */
+        int run();
+    }
+
+    private static final long WARM_UP_NANOS = 1000000000L;
+    private static final long ROUND_NANOS = 100000000L;
+    private static final int ROUNDS = 15;
+
+    private static volatile int sink;
+
+    private Benchmark() {
+    }
+
+    /**
+     * @return the median time of one run of the operation, in milliseconds
+     */
+    public static double measure(Operation operation) {
+        long warmUpStart = System.nanoTime();
+        int runsPerRound = 0;
+        while (System.nanoTime() - warmUpStart < WARM_UP_NANOS) {
+            sink += operation.run();
+            runsPerRound++;
+        }
+        // As many runs per round as fit in ROUND_NANOS at the warmed up speed.
+        long warmUpNanos = System.nanoTime() - warmUpStart;
+        runsPerRound = (int) Math.max(1L, runsPerRound * ROUND_NANOS / warmUpNanos);
+        double[] rounds = new double[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int run = 0; run < runsPerRound; run++) {
+                sink += operation.run();
+            }
+            rounds[round] = (System.nanoTime() - start) / 1e6 / runsPerRound;
+        }
+        Arrays.sort(rounds);
+        return rounds[ROUNDS / 2];
+    }
+
+    /**
+     * Prints one row of fixed width columns, the first left aligned.
+     */
+    public static void printRow(Object... columns) {
+        StringBuilder row = new StringBuilder(String.format(Locale.US, "%-22s", columns[0]));
+        for (int i = 1; i < columns.length; i++) {
+            Object column = columns[i];
+            row.append(column instanceof Double
+                    ? String.format(Locale.US, "%14.3f", (Double) column)
+                    : String.format(Locale.US, "%14s", column));
+        }
+        System.out.println(row);
+    }
+}
@@ -0,0 +1,194 @@
+package com.liangmayong.qrcode.camera;
+
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.view.SurfaceHolder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link CameraBackend} without a camera: it serves a Y plane set by the test through the same
+ * buffer-backed frames as {@link Camera2Backend}, padded rows included. Frames are delivered when
+ * the test calls {@link #deliverFrame()}, on the calling thread, so no looper is needed.
+ */
+final class FakeCameraBackend implements CameraBackend {
+
+    private final int width;
+    private final int height;
+    private final int rowStride;
+    private final FrameSlot<PreviewFrame> frameSlot = new FrameSlot<PreviewFrame>();
+    private volatile ByteBuffer plane;
+    private String flashMode = Camera.Parameters.FLASH_MODE_OFF;
+    private boolean open;
+    private volatile boolean previewing;
+    private int releasedFrames;
+
+    /**
+     * @param width     width of the unrotated frames
+     * @param height    height of the unrotated frames
+     * @param rowStride distance in bytes between the starts of two rows, at least the width
+     */
+    FakeCameraBackend(int width, int height, int rowStride) {
+        if (width <= 0 || height <= 0 || rowStride < width) {
+            throw new IllegalArgumentException("Bad frame geometry: " + width + "x" + height + "/" + rowStride);
+        }
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.plane = ByteBuffer.allocateDirect(rowStride * height);
+    }
+
+    /**
+     * Sets the picture every following frame shows. Frames already delivered keep the old one.
+     *
+     * @param luminance the unrotated Y plane, rows as wide as the frame
+     */
+    void setFrame(byte[] luminance) {
+        if (luminance.length < width * height) {
+            throw new IllegalArgumentException("Frame is smaller than " + width + "x" + height);
+        }
+        ByteBuffer next = ByteBuffer.allocateDirect(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            next.position(y * rowStride);
+            next.put(luminance, y * width, width);
+        }
+        next.clear();
+        plane = next;
+    }
+
+    /**
+     * Publishes one frame, the way the camera thread of a real backend does.
+     *
+     * @return the frame, or null when the preview is not running
+     */
+    PreviewFrame deliverFrame() {
+        if (!previewing) {
+            return null;
+        }
+        PreviewFrame frame = new PreviewFrame(plane, rowStride, width, height, System.nanoTime());
+        PreviewFrame staleFrame = frameSlot.publish(frame, width, height);
+        if (staleFrame != null) {
+            releaseFrame(staleFrame);
+        }
+        return frame;
+    }
+
+    /**
+     * @return frames handed back through {@link #releaseFrame(PreviewFrame)}
+     */
+    synchronized int getReleasedFrameCount() {
+        return releasedFrames;
+    }
+
+    @Override
+    public void open(SurfaceHolder holder, Point screenResolution) {
+        open = true;
+    }
+
+    @Override
+    public void close() {
+        stopPreview();
+        open = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Point getPreviewSize() {
+        return open ? new Point(width, height) : null;
+    }
+
+    @Override
+    public void startPreview(int bufferCount) {
+        if (!open || previewing) {
+            return;
+        }
+        frameSlot.resetFrameCounts();
+        previewing = true;
+    }
+
+    @Override
+    public void stopPreview() {
+        if (!previewing) {
+            return;
+        }
+        previewing = false;
+        frameSlot.clearRequests();
+        PreviewFrame waitingFrame = frameSlot.clear();
+        if (waitingFrame != null) {
+            releaseFrame(waitingFrame);
+        }
+    }
+
+    @Override
+    public boolean isPreviewing() {
+        return previewing;
+    }
+
+    @Override
+    public void setErrorHandler(Handler handler, int message) {
+        // The preview never fails.
+    }
+
+    @Override
+    public void requestFrame(Handler handler, int message) {
+        if (previewing) {
+            frameSlot.addRequest(handler, message);
+        }
+    }
+
+    @Override
+    public PreviewFrame takeFrame() {
+        return frameSlot.take();
+    }
+
+    @Override
+    public synchronized void releaseFrame(PreviewFrame frame) {
+        // The planes are immutable once set, there is nothing to recycle; only count it.
+        releasedFrames++;
+    }
+
+    @Override
+    public void clearFrameRequests() {
+        frameSlot.clearRequests();
+    }
+
+    @Override
+    public long getDeliveredFrameCount() {
+        return frameSlot.getDeliveredFrameCount();
+    }
+
+    @Override
+    public long getUnclaimedFrameCount() {
+        return frameSlot.getUnclaimedFrameCount();
+    }
+
+    @Override
+    public void requestAutoFocus(Handler handler, int message) {
+        // Always in focus.
+    }
+
+    @Override
+    public int setPreviewFpsCeiling(int maxFps) {
+        return maxFps;
+    }
+
+    @Override
+    public void resetPreviewFpsRange() {
+        // There is no range to reset.
+    }
+
+    @Override
+    public void setFlashMode(String flashMode) {
+        this.flashMode = flashMode;
+    }
+
+    @Override
+    public String getFlashMode() {
+        return flashMode;
+    }
+}
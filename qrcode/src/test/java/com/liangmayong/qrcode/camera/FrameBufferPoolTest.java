@@ -0,0 +1,193 @@
+package com.liangmayong.qrcode.camera;
+
+import com.google.zxing.LuminanceSource;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameBufferPoolTest {
+
+    private static final int FRAME_SIZE = 640 * 480;
+    private static final int PREVIEW_WIDTH = 1280;
+    private static final int PREVIEW_HEIGHT = 720;
+    /**
+     * A framing rect in rotated preview coordinates, about what the scan view asks for at 720p.
+     */
+    private static final int CROP_LEFT = 60;
+    private static final int CROP_TOP = 380;
+    private static final int CROP_SIZE = 480;
+    private static final int PYRAMID_SCALE = 2;
+    private static final int WARM_UP_FRAMES = 200;
+    private static final int MEASURED_FRAMES = 500;
+
+    @Test
+    public void steadyStateAcquireAndReleaseAllocateNoArrays() {
+        FrameBufferPool pool = new FrameBufferPool(2);
+        pool.prime(FRAME_SIZE);
+        Set<byte[]> primed = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+        byte[] first = pool.acquire(FRAME_SIZE);
+        byte[] second = pool.acquire(FRAME_SIZE);
+        primed.add(first);
+        primed.add(second);
+        pool.release(first);
+        pool.release(second);
+
+        for (int frame = 0; frame < 1000; frame++) {
+            byte[] rotation = pool.acquire(FRAME_SIZE);
+            byte[] luminance = pool.acquire(FRAME_SIZE);
+            assertTrue("Frame " + frame + " got a new array", primed.contains(rotation));
+            assertTrue("Frame " + frame + " got a new array", primed.contains(luminance));
+            assertNotSame(rotation, luminance);
+            pool.release(luminance);
+            pool.release(rotation);
+        }
+    }
+
+    @Test
+    public void decodePathOnArrayFramesAllocatesNoFrameArrays() {
+        byte[] data = new byte[PREVIEW_WIDTH * PREVIEW_HEIGHT];
+        new Random(1).nextBytes(data);
+        assertNoFrameArraysAllocated(new PreviewFrame(data, PREVIEW_WIDTH, PREVIEW_HEIGHT, 0L));
+    }
+
+    @Test
+    public void decodePathOnPaddedBufferFramesAllocatesNoFrameArrays() {
+        int rowStride = PREVIEW_WIDTH + 64;
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * PREVIEW_HEIGHT);
+        byte[] row = new byte[rowStride];
+        Random random = new Random(2);
+        for (int y = 0; y < PREVIEW_HEIGHT; y++) {
+            random.nextBytes(row);
+            plane.put(row);
+        }
+        plane.clear();
+        assertNoFrameArraysAllocated(new PreviewFrame(plane, rowStride, PREVIEW_WIDTH, PREVIEW_HEIGHT, 0L));
+    }
+
+    /**
+     * Runs what a worker does with the luminance of each frame, as in DecodeHandler: the rotated
+     * crop, its inverted copy, and the downsampled and inverted coarse pass of pyramid mode, all
+     * on buffers of one shared pool. After a warm-up, every matrix must be a pool buffer and, where
+     * the JVM counts allocated bytes, the thread must allocate far less per frame than the
+     * smallest of those matrices.
+     */
+    private static void assertNoFrameArraysAllocated(PreviewFrame frame) {
+        FrameBufferPool pool = new FrameBufferPool(4);
+        pool.prime(CROP_SIZE * CROP_SIZE);
+        Set<byte[]> pooled = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            decodeLuminance(frame, pool, pooled);
+        }
+        Set<byte[]> warmedUp = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+        warmedUp.addAll(pooled);
+
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads != null ? threads.getThreadAllocatedBytes(threadId) : 0L;
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            decodeLuminance(frame, pool, pooled);
+        }
+        assertEquals("A new buffer joined the pool after the warm-up", warmedUp, pooled);
+        if (threads != null) {
+            // Source objects and the like, but not a single matrix per frame.
+            long perFrame = (threads.getThreadAllocatedBytes(threadId) - allocatedBefore) / MEASURED_FRAMES;
+            int smallestMatrix = DownsampledLuminanceSource.getScaledSize(CROP_SIZE, CROP_SIZE, PYRAMID_SCALE);
+            assertTrue("Allocated " + perFrame + " bytes per frame", perFrame < smallestMatrix / 4);
+        }
+    }
+
+    private static void decodeLuminance(PreviewFrame frame, FrameBufferPool pool, Set<byte[]> pooled) {
+        byte[] matrix = pool.acquire(CROP_SIZE * CROP_SIZE);
+        byte[] invertedMatrix = pool.acquire(CROP_SIZE * CROP_SIZE);
+        int coarseSize = DownsampledLuminanceSource.getScaledSize(CROP_SIZE, CROP_SIZE, PYRAMID_SCALE);
+        byte[] coarse = pool.acquire(coarseSize);
+        byte[] invertedCoarse = pool.acquire(coarseSize);
+        try {
+            RotatedPlanarYUVLuminanceSource source = frame.buildRotatedLuminanceSource(CROP_LEFT, CROP_TOP,
+                    CROP_SIZE, CROP_SIZE, matrix);
+            collect(pooled, matrix, source.getMatrix());
+            collect(pooled, invertedMatrix, new InvertingLuminanceSource(source, invertedMatrix).getMatrix());
+            LuminanceSource coarseSource = new DownsampledLuminanceSource(source, PYRAMID_SCALE, coarse);
+            collect(pooled, coarse, coarseSource.getMatrix());
+            collect(pooled, invertedCoarse,
+                    new InvertingLuminanceSource(coarseSource, invertedCoarse).getMatrix());
+        } finally {
+            pool.release(invertedCoarse);
+            pool.release(coarse);
+            pool.release(invertedMatrix);
+            pool.release(matrix);
+        }
+    }
+
+    private static void collect(Set<byte[]> pooled, byte[] buffer, byte[] served) {
+        assertSame("The source must serve the pool buffer", buffer, served);
+        pooled.add(buffer);
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+                ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+                return (com.sun.management.ThreadMXBean) threads;
+            }
+        } catch (LinkageError e) {
+            // Not a HotSpot JVM.
+        }
+        return null;
+    }
+
+    @Test
+    public void smallerRequestsReuseLargerBuffers() {
+        FrameBufferPool pool = new FrameBufferPool(1);
+        pool.prime(FRAME_SIZE);
+        byte[] buffer = pool.acquire(FRAME_SIZE);
+        pool.release(buffer);
+        for (int size = FRAME_SIZE; size > 0; size /= 2) {
+            byte[] next = pool.acquire(size);
+            assertSame(buffer, next);
+            pool.release(next);
+        }
+    }
+
+    @Test
+    public void tooSmallBuffersAreReplacedOnce() {
+        FrameBufferPool pool = new FrameBufferPool(1);
+        pool.prime(FRAME_SIZE / 4);
+        byte[] grown = pool.acquire(FRAME_SIZE);
+        assertEquals(FRAME_SIZE, grown.length);
+        pool.release(grown);
+        for (int frame = 0; frame < 10; frame++) {
+            byte[] next = pool.acquire(FRAME_SIZE);
+            assertSame(grown, next);
+            pool.release(next);
+        }
+    }
+
+    @Test
+    public void releaseBeyondCapacityIsDropped() {
+        FrameBufferPool pool = new FrameBufferPool(1);
+        byte[] kept = new byte[16];
+        pool.release(kept);
+        pool.release(new byte[16]);
+        assertSame(kept, pool.acquire(16));
+        assertEquals(32, pool.acquire(32).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new FrameBufferPool(0);
+    }
+}
@@ -0,0 +1,135 @@
+package com.liangmayong.qrcode.camera;
+
+import com.liangmayong.qrcode.Benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the per-pixel 90 degree loop RotatedPlanarYUVLuminanceSource used before
+ * {@link FrameRotator} with the tiled kernel, at the preview sizes
+ * CameraConfigurationManager.findBestPreviewSizeValue picks on common screens. Each size is
+ * timed for a whole plane and for a framing rect crop, and the kernel also for a crop out of a
+ * padded Camera2 plane, which the old loop could not read.
+ * <p>
+ * Run with {@code ./gradlew :qrcode:benchmark -Pbenchmark=camera.FrameRotatorBenchmark}.
+ */
+public final class FrameRotatorBenchmark {
+
+    private static final int[][] PREVIEW_SIZES = {{640, 480}, {1280, 720}, {1920, 1080}};
+    /**
+     * Side of the framing rect as a share of the shorter side of the frame, about what the scan
+     * view asks for.
+     */
+    private static final float FRAMING_FILL = 0.625f;
+    private static final int ROW_PADDING = 64;
+
+    private FrameRotatorBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        Benchmark.printRow("ms per frame", "per-pixel", "FrameRotator", "speedup");
+        for (int[] size : PREVIEW_SIZES) {
+            final int width = size[0];
+            final int height = size[1];
+            final byte[] frame = new byte[width * height];
+            new Random(width).nextBytes(frame);
+            final ByteBuffer plane = pad(frame, width, height, width + ROW_PADDING);
+
+            // A quarter turn makes the frame portrait, height x width.
+            final byte[] rotated = new byte[width * height];
+            run(width + "x" + height + " plane", new Benchmark.Operation() {
+                @Override
+                public int run() {
+                    rotateCropPerPixel(frame, width, height, 0, 0, height, width, rotated);
+                    return rotated[0];
+                }
+            }, new Benchmark.Operation() {
+                @Override
+                public int run() {
+                    FrameRotator.rotate(frame, width, height, 90, rotated);
+                    return rotated[0];
+                }
+            });
+
+            final int side = (int) (Math.min(width, height) * FRAMING_FILL);
+            final int left = (height - side) / 2;
+            final int top = (width - side) / 2;
+            final byte[] crop = new byte[side * side];
+            checkSameOutput(frame, width, height, left, top, side);
+            run(width + "x" + height + " crop " + side, new Benchmark.Operation() {
+                @Override
+                public int run() {
+                    rotateCropPerPixel(frame, width, height, left, top, side, side, crop);
+                    return crop[0];
+                }
+            }, new Benchmark.Operation() {
+                @Override
+                public int run() {
+                    FrameRotator.rotateCrop(frame, width, height, 90, left, top, side, side, crop);
+                    return crop[0];
+                }
+            });
+            run(width + "x" + height + " padded crop", null, new Benchmark.Operation() {
+                @Override
+                public int run() {
+                    FrameRotator.rotateCrop(plane, width + ROW_PADDING, width, height, 90, left, top,
+                            side, side, crop);
+                    return crop[0];
+                }
+            });
+        }
+    }
+
+    /**
+     * The loop RotatedPlanarYUVLuminanceSource.getMatrix() ran before FrameRotator: it walks the
+     * source row by row, and writes every byte a full crop row after the one before.
+     */
+    static void rotateCropPerPixel(byte[] yuv, int dataWidth, int dataHeight, int left, int top,
+                                   int width, int height, byte[] output) {
+        for (int x = 0; x < width; x++) {
+            int inputOffset = (dataHeight - 1 - left - x) * dataWidth + top;
+            int outputOffset = x;
+            for (int y = 0; y < height; y++) {
+                output[outputOffset] = yuv[inputOffset + y];
+                outputOffset += width;
+            }
+        }
+    }
+
+    private static void run(String name, Benchmark.Operation old, Benchmark.Operation kernel) {
+        double kernelMillis = Benchmark.measure(kernel);
+        if (old == null) {
+            Benchmark.printRow(name, "-", kernelMillis, "-");
+            return;
+        }
+        double oldMillis = Benchmark.measure(old);
+        Benchmark.printRow(name, oldMillis, kernelMillis,
+                String.format(java.util.Locale.US, "%.2fx", oldMillis / kernelMillis));
+    }
+
+    /**
+     * A benchmark of code that computes something else is worth nothing.
+     */
+    private static void checkSameOutput(byte[] frame, int width, int height, int left, int top, int side) {
+        byte[] expected = new byte[side * side];
+        byte[] actual = new byte[side * side];
+        rotateCropPerPixel(frame, width, height, left, top, side, side, expected);
+        FrameRotator.rotateCrop(frame, width, height, 90, left, top, side, side, actual);
+        if (!Arrays.equals(expected, actual)) {
+            throw new IllegalStateException("FrameRotator and the per-pixel loop disagree at "
+                    + width + "x" + height);
+        }
+    }
+
+    private static ByteBuffer pad(byte[] frame, int width, int height, int rowStride) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            plane.position(y * rowStride);
+            plane.put(frame, y * width, width);
+        }
+        plane.clear();
+        return plane;
+    }
+}
@@ -0,0 +1,201 @@
+package com.liangmayong.qrcode.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameRotatorTest {
+
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    /**
+     * Frame sizes around the tile size, so partial tiles are covered on both axes.
+     */
+    private static final int[][] SIZES = {{1, 1}, {7, 3}, {32, 32}, {33, 31}, {70, 45}, {96, 64}};
+
+    @Test
+    public void rotateMatchesNaiveRotation() {
+        for (int[] size : SIZES) {
+            byte[] src = randomFrame(size[0], size[1]);
+            for (int rotation : ROTATIONS) {
+                byte[] dst = new byte[size[0] * size[1]];
+                FrameRotator.rotate(src, size[0], size[1], rotation, dst);
+                assertArrayEquals(describe(size, rotation),
+                        naiveRotateCrop(src, size[0], size[1], rotation, 0, 0,
+                                FrameRotator.getRotatedWidth(size[0], size[1], rotation),
+                                FrameRotator.getRotatedHeight(size[0], size[1], rotation)),
+                        dst);
+            }
+        }
+    }
+
+    @Test
+    public void rotateCropMatchesNaiveRotation() {
+        for (int[] size : SIZES) {
+            byte[] src = randomFrame(size[0], size[1]);
+            for (int rotation : ROTATIONS) {
+                for (int[] crop : crops(size, rotation)) {
+                    byte[] dst = new byte[crop[2] * crop[3]];
+                    FrameRotator.rotateCrop(src, size[0], size[1], rotation,
+                            crop[0], crop[1], crop[2], crop[3], dst);
+                    assertArrayEquals(describe(size, rotation, crop),
+                            naiveRotateCrop(src, size[0], size[1], rotation,
+                                    crop[0], crop[1], crop[2], crop[3]),
+                            dst);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void paddedBufferMatchesNaiveRotation() {
+        for (int[] size : SIZES) {
+            byte[] src = randomFrame(size[0], size[1]);
+            for (int padding : new int[]{0, 5, 64}) {
+                ByteBuffer plane = padRows(src, size[0], size[1], size[0] + padding);
+                for (int rotation : ROTATIONS) {
+                    for (int[] crop : crops(size, rotation)) {
+                        byte[] dst = new byte[crop[2] * crop[3]];
+                        FrameRotator.rotateCrop(plane, size[0] + padding, size[0], size[1],
+                                rotation, crop[0], crop[1], crop[2], crop[3], dst);
+                        assertArrayEquals(describe(size, rotation, crop) + " padding " + padding,
+                                naiveRotateCrop(src, size[0], size[1], rotation,
+                                        crop[0], crop[1], crop[2], crop[3]),
+                                dst);
+                    }
+                }
+                assertEquals("The plane must not be moved", 0, plane.position());
+            }
+        }
+    }
+
+    @Test
+    public void luminanceSourceMatchesNaiveRotation() {
+        for (int[] size : SIZES) {
+            byte[] src = randomFrame(size[0], size[1]);
+            int stride = size[0] + 7;
+            ByteBuffer plane = padRows(src, size[0], size[1], stride);
+            for (int[] crop : crops(size, 90)) {
+                byte[] expected = naiveRotateCrop(src, size[0], size[1], 90,
+                        crop[0], crop[1], crop[2], crop[3]);
+                RotatedPlanarYUVLuminanceSource fromArray = new RotatedPlanarYUVLuminanceSource(
+                        src, size[0], size[1], crop[0], crop[1], crop[2], crop[3], null);
+                RotatedPlanarYUVLuminanceSource fromBuffer = new RotatedPlanarYUVLuminanceSource(
+                        plane, stride, size[0], size[1], crop[0], crop[1], crop[2], crop[3],
+                        new byte[crop[2] * crop[3]]);
+                String message = describe(size, 90, crop);
+                // Rows first: they are read from the frame before the matrix is built.
+                assertArrayEquals(message, expected, rows(fromArray));
+                assertArrayEquals(message, expected, rows(fromBuffer));
+                assertArrayEquals(message, expected, fromArray.getMatrix());
+                assertArrayEquals(message, expected, fromBuffer.getMatrix());
+                assertArrayEquals(message, expected, rows(fromBuffer));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cropOutsideTheRotatedFrameIsRejected() {
+        // 90 degrees turns 8x4 into 4x8, so a crop 5 wide no longer fits.
+        FrameRotator.rotateCrop(new byte[32], 8, 4, 90, 0, 0, 5, 1, new byte[5]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddRotationIsRejected() {
+        FrameRotator.rotate(new byte[4], 2, 2, 45, new byte[4]);
+    }
+
+    /**
+     * Reads every pixel of the crop on its own: rotated (x, y) is unrotated (sx, sy).
+     */
+    private static byte[] naiveRotateCrop(byte[] src, int srcWidth, int srcHeight, int rotation,
+                                          int left, int top, int width, int height) {
+        byte[] out = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rx = left + x;
+                int ry = top + y;
+                int sx;
+                int sy;
+                switch (rotation) {
+                    case 0:
+                        sx = rx;
+                        sy = ry;
+                        break;
+                    case 90:
+                        sx = ry;
+                        sy = srcHeight - 1 - rx;
+                        break;
+                    case 180:
+                        sx = srcWidth - 1 - rx;
+                        sy = srcHeight - 1 - ry;
+                        break;
+                    default:
+                        sx = srcWidth - 1 - ry;
+                        sy = rx;
+                        break;
+                }
+                out[y * width + x] = src[sy * srcWidth + sx];
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The whole rotated frame, a one pixel inset and a small off-center window, each as
+     * {left, top, width, height} in rotated coordinates.
+     */
+    private static int[][] crops(int[] size, int rotation) {
+        int width = FrameRotator.getRotatedWidth(size[0], size[1], rotation);
+        int height = FrameRotator.getRotatedHeight(size[0], size[1], rotation);
+        int[][] crops = new int[3][];
+        crops[0] = new int[]{0, 0, width, height};
+        crops[1] = width > 2 && height > 2 ? new int[]{1, 1, width - 2, height - 2} : crops[0];
+        crops[2] = new int[]{width / 3, height / 2, Math.max(1, width / 2), Math.max(1, height / 3)};
+        return crops;
+    }
+
+    private static byte[] rows(RotatedPlanarYUVLuminanceSource source) {
+        int width = source.getWidth();
+        byte[] out = new byte[width * source.getHeight()];
+        for (int y = 0; y < source.getHeight(); y++) {
+            System.arraycopy(source.getRow(y, null), 0, out, y * width, width);
+        }
+        return out;
+    }
+
+    private static ByteBuffer padRows(byte[] src, int width, int height, int rowStride) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height);
+        byte[] padding = new byte[rowStride - width];
+        for (int i = 0; i < padding.length; i++) {
+            padding[i] = (byte) 0xA5;
+        }
+        for (int y = 0; y < height; y++) {
+            plane.put(src, y * width, width);
+            if (y < height - 1) {
+                plane.put(padding);
+            }
+        }
+        plane.clear();
+        return plane;
+    }
+
+    private static byte[] randomFrame(int width, int height) {
+        byte[] frame = new byte[width * height];
+        new Random(width * 31L + height).nextBytes(frame);
+        return frame;
+    }
+
+    private static String describe(int[] size, int rotation) {
+        return size[0] + "x" + size[1] + " at " + rotation;
+    }
+
+    private static String describe(int[] size, int rotation, int[] crop) {
+        return describe(size, rotation) + " crop " + crop[0] + "," + crop[1] + " "
+                + crop[2] + "x" + crop[3];
+    }
+}
@@ -0,0 +1,136 @@
+package com.liangmayong.qrcode.camera;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FrameSlotTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void onlyTheNewestFrameIsTaken() {
+        FakeCameraBackend backend = startedBackend(WIDTH);
+        backend.deliverFrame();
+        backend.deliverFrame();
+        PreviewFrame newest = backend.deliverFrame();
+
+        assertSame(newest, backend.takeFrame());
+        assertNull("The slot must be empty after a take", backend.takeFrame());
+        assertEquals(3, backend.getDeliveredFrameCount());
+        assertEquals(2, backend.getUnclaimedFrameCount());
+        assertEquals("Replaced frames go back to the backend", 2, backend.getReleasedFrameCount());
+    }
+
+    @Test
+    public void takenFramesAreNotCountedAsUnclaimed() {
+        FakeCameraBackend backend = startedBackend(WIDTH);
+        for (int frame = 0; frame < 10; frame++) {
+            backend.deliverFrame();
+            backend.releaseFrame(backend.takeFrame());
+        }
+        assertEquals(10, backend.getDeliveredFrameCount());
+        assertEquals(0, backend.getUnclaimedFrameCount());
+        assertEquals(10, backend.getReleasedFrameCount());
+    }
+
+    @Test
+    public void stopPreviewReleasesTheWaitingFrame() {
+        FakeCameraBackend backend = startedBackend(WIDTH);
+        backend.deliverFrame();
+        backend.stopPreview();
+        assertNull(backend.takeFrame());
+        assertEquals(1, backend.getReleasedFrameCount());
+        assertNull("No frames while stopped", backend.deliverFrame());
+    }
+
+    @Test
+    public void startPreviewResetsTheCounts() {
+        FakeCameraBackend backend = startedBackend(WIDTH);
+        backend.deliverFrame();
+        backend.deliverFrame();
+        backend.stopPreview();
+        backend.startPreview(3);
+        assertEquals(0, backend.getDeliveredFrameCount());
+        assertEquals(0, backend.getUnclaimedFrameCount());
+    }
+
+    @Test
+    public void paddedFramesReadLikeTheSetPicture() {
+        int rowStride = WIDTH + 16;
+        FakeCameraBackend backend = startedBackend(rowStride);
+        byte[] picture = new byte[WIDTH * HEIGHT];
+        new Random(7).nextBytes(picture);
+        backend.setFrame(picture);
+        backend.deliverFrame();
+
+        PreviewFrame frame = backend.takeFrame();
+        assertEquals(rowStride, frame.getRowStride());
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(picture[y * WIDTH + x] & 0xff, frame.getLuminance(x, y));
+            }
+        }
+        byte[] copy = new byte[WIDTH * HEIGHT];
+        frame.copyLuminance(copy);
+        for (int i = 0; i < copy.length; i++) {
+            assertEquals(picture[i], copy[i]);
+        }
+    }
+
+    @Test
+    public void everyFrameIsTakenOrReleasedOnceUnderContention() throws InterruptedException {
+        final FakeCameraBackend backend = startedBackend(WIDTH);
+        final int frames = 20000;
+        final AtomicInteger taken = new AtomicInteger();
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int frame = 0; frame < frames; frame++) {
+                    backend.deliverFrame();
+                }
+            }
+        });
+        Thread[] workers = new Thread[3];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (producer.isAlive()) {
+                        PreviewFrame frame = backend.takeFrame();
+                        if (frame != null) {
+                            taken.incrementAndGet();
+                            backend.releaseFrame(frame);
+                        }
+                    }
+                }
+            });
+        }
+        producer.start();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        producer.join();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        int waiting = backend.takeFrame() != null ? 1 : 0;
+
+        assertEquals(frames, backend.getDeliveredFrameCount());
+        assertEquals(frames, taken.get() + backend.getUnclaimedFrameCount() + waiting);
+        assertEquals(taken.get() + backend.getUnclaimedFrameCount(), backend.getReleasedFrameCount());
+    }
+
+    private static FakeCameraBackend startedBackend(int rowStride) {
+        FakeCameraBackend backend = new FakeCameraBackend(WIDTH, HEIGHT, rowStride);
+        backend.open(null, null);
+        backend.startPreview(3);
+        return backend;
+    }
+}
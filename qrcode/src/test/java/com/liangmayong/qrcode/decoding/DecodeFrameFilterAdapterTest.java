@@ -0,0 +1,66 @@
+package com.liangmayong.qrcode.decoding;
+
+import android.graphics.Rect;
+
+import com.liangmayong.qrcode.camera.PreviewFrame;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DecodeFrameFilterAdapterTest {
+
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+
+    @Test
+    public void arrayFramesArePassedAsTheyAre() {
+        RecordingFilter filter = new RecordingFilter();
+        byte[] data = new byte[WIDTH * HEIGHT];
+        assertTrue(filter.accept(new PreviewFrame(data, WIDTH, HEIGHT, 0L), null));
+        assertSame(data, filter.data);
+        assertEquals(WIDTH, filter.width);
+        assertEquals(HEIGHT, filter.height);
+    }
+
+    @Test
+    public void bufferFramesAreCopiedIntoOneArrayPerThread() {
+        RecordingFilter filter = new RecordingFilter();
+        int rowStride = WIDTH + 3;
+        byte[] expected = new byte[WIDTH * HEIGHT];
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                expected[y * WIDTH + x] = (byte) (y * WIDTH + x);
+                plane.put(y * rowStride + x, (byte) (y * WIDTH + x));
+            }
+        }
+        PreviewFrame frame = new PreviewFrame(plane, rowStride, WIDTH, HEIGHT, 0L);
+
+        filter.accept(frame, null);
+        byte[] copy = filter.data;
+        assertArrayEquals(expected, copy);
+        filter.accept(frame, null);
+        assertSame("The copy must be reused", copy, filter.data);
+    }
+
+    private static final class RecordingFilter extends DecodeFrameFilterAdapter {
+
+        private byte[] data;
+        private int width;
+        private int height;
+
+        @Override
+        public boolean accept(byte[] data, int width, int height, Rect framingRect) {
+            this.data = data;
+            this.width = width;
+            this.height = height;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.liangmayong.qrcode.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.BitMatrix;
+import com.liangmayong.qrcode.Benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares ZXing's MultiFormatReader with {@link FormatOrderedReader} for the format mixes a scan
+ * view is set up with, on synthetic 360 x 360 frames: clutter with no code, a QR code, a Code 128
+ * barcode and a QR code whose data is unreadable. The dispatcher is timed with fresh
+ * {@link DecodeStatistics}, and again after a success of the frame's own format, which the
+ * latest-success rule then tries first. The frame is binarized once; the numbers are the cost of
+ * the readers.
+ * <p>
+ * Run with {@code ./gradlew :qrcode:benchmark -Pbenchmark=decoding.FormatMixBenchmark}.
+ */
+public final class FormatMixBenchmark {
+
+    private static final int FRAME_SIZE = 360;
+
+    private static final List<BarcodeFormat> ONE_D = Arrays.asList(BarcodeFormat.UPC_A, BarcodeFormat.UPC_E,
+            BarcodeFormat.EAN_13, BarcodeFormat.EAN_8, BarcodeFormat.CODE_39, BarcodeFormat.CODE_93,
+            BarcodeFormat.CODE_128, BarcodeFormat.ITF, BarcodeFormat.CODABAR, BarcodeFormat.RSS_14);
+
+    private FormatMixBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        List<BarcodeFormat> all = new ArrayList<BarcodeFormat>(ONE_D);
+        all.add(BarcodeFormat.QR_CODE);
+        all.add(BarcodeFormat.DATA_MATRIX);
+        String[] mixNames = {"1D+QR+DM", "QR only", "1D only"};
+        List<List<BarcodeFormat>> mixes = Arrays.asList(all, Arrays.asList(BarcodeFormat.QR_CODE), ONE_D);
+
+        String[] frameNames = {"clutter", "QR", "Code 128", "unreadable QR"};
+        BarcodeFormat[] frameFormats = {null, BarcodeFormat.QR_CODE, BarcodeFormat.CODE_128, BarcodeFormat.QR_CODE};
+        BinaryBitmap[] frames = {clutter(), qrCode(), code128(), unreadableQrCode()};
+
+        System.out.println("ms per frame, MultiFormatReader / dispatcher / dispatcher after a hit");
+        for (int m = 0; m < mixes.size(); m++) {
+            Map<DecodeHintType, Object> hints = new Hashtable<DecodeHintType, Object>();
+            hints.put(DecodeHintType.POSSIBLE_FORMATS, mixes.get(m));
+            for (int f = 0; f < frames.length; f++) {
+                BarcodeFormat format = frameFormats[f];
+                if (format != null && !mixes.get(m).contains(format)) {
+                    continue;
+                }
+                double multi = Benchmark.measure(multiFormat(hints, frames[f]));
+                double fresh = Benchmark.measure(dispatcher(hints, frames[f], null));
+                Object afterHit = format != null
+                        ? (Object) Benchmark.measure(dispatcher(hints, frames[f], format)) : "-";
+                Benchmark.printRow(mixNames[m] + ", " + frameNames[f], multi, fresh, afterHit,
+                        String.format(Locale.US, "%.2fx", multi / fresh));
+            }
+        }
+    }
+
+    private static Benchmark.Operation multiFormat(Map<DecodeHintType, Object> hints, final BinaryBitmap frame) {
+        final MultiFormatReader reader = new MultiFormatReader();
+        reader.setHints(hints);
+        return new Benchmark.Operation() {
+            @Override
+            public int run() {
+                try {
+                    return reader.decodeWithState(frame).getText().length();
+                } catch (ReaderException e) {
+                    return 0;
+                } finally {
+                    reader.reset();
+                }
+            }
+        };
+    }
+
+    /**
+     * @param hit format to record one success of before timing, or null for fresh statistics
+     */
+    private static Benchmark.Operation dispatcher(Map<DecodeHintType, Object> hints, final BinaryBitmap frame,
+                                                  BarcodeFormat hit) {
+        DecodeStatistics statistics = DecodeStatistics.getInstance();
+        statistics.reset();
+        if (hit != null) {
+            statistics.recordSuccess(DecodeBinarizer.values()[0], hit);
+        }
+        final FormatOrderedReader reader = new FormatOrderedReader(hints, statistics, true);
+        return new Benchmark.Operation() {
+            @Override
+            public int run() {
+                try {
+                    Result result = reader.decode(frame);
+                    return result.getText().length();
+                } catch (ReaderException e) {
+                    return 0;
+                }
+            }
+        };
+    }
+
+    private static BinaryBitmap clutter() {
+        return binarized(new SyntheticFrames(FRAME_SIZE, FRAME_SIZE, 11).drawClutter(400, 6));
+    }
+
+    private static BinaryBitmap qrCode() {
+        return binarized(new SyntheticFrames(FRAME_SIZE, FRAME_SIZE, 12)
+                .drawCode(SyntheticFrames.encodeQrCode(), 100, 100, 5));
+    }
+
+    private static BinaryBitmap code128() {
+        return binarized(new SyntheticFrames(FRAME_SIZE, FRAME_SIZE, 13)
+                .drawBars(SyntheticFrames.encodeCode128(), 20, 120, 2, 120));
+    }
+
+    private static BinaryBitmap unreadableQrCode() {
+        BitMatrix code = SyntheticFrames.encodeQrCode();
+        return binarized(new SyntheticFrames(FRAME_SIZE, FRAME_SIZE, 14)
+                .drawCode(code, 100, 100, 5)
+                .eraseQrData(code, 100, 100, 5));
+    }
+
+    /**
+     * Binarizes up front, so every run reads the cached black matrix.
+     */
+    private static BinaryBitmap binarized(SyntheticFrames frames) {
+        BinaryBitmap bitmap = frames.toBinaryBitmap();
+        try {
+            bitmap.getBlackMatrix();
+        } catch (ReaderException e) {
+            throw new IllegalStateException(e);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,109 @@
+package com.liangmayong.qrcode.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Each frame holds a QR code and a Code 128 barcode, so the family tried first decides which
+ * one comes back.
+ */
+public class FormatOrderedReaderTest {
+
+    private static final int FRAME_SIZE = 360;
+    private static final int QR_LEFT = 20;
+    private static final int QR_TOP = 20;
+    private static final int QR_MODULE_PIXELS = 4;
+
+    private DecodeStatistics statistics;
+
+    @Before
+    public void setUp() {
+        statistics = DecodeStatistics.getInstance();
+        statistics.reset();
+    }
+
+    @Test
+    public void cheaperFamilyFirstWithoutStatistics() throws NotFoundException {
+        FormatOrderedReader reader = newReader(true);
+        assertEquals(BarcodeFormat.QR_CODE, reader.decode(bothCodes()).getBarcodeFormat());
+    }
+
+    @Test
+    public void familyWithMoreHitsFirst() throws NotFoundException {
+        statistics.recordSuccess(DecodeBinarizer.values()[0], BarcodeFormat.CODE_128);
+        statistics.recordSuccess(DecodeBinarizer.values()[0], BarcodeFormat.CODE_128);
+        // The latest success is of a family that is not requested, so only the hits count.
+        statistics.recordSuccess(DecodeBinarizer.values()[0], BarcodeFormat.DATA_MATRIX);
+        FormatOrderedReader reader = newReader(true);
+        assertEquals(BarcodeFormat.CODE_128, reader.decode(bothCodes()).getBarcodeFormat());
+    }
+
+    @Test
+    public void familyOfLatestSuccessFirst() throws NotFoundException {
+        FormatOrderedReader reader = newReader(true);
+        statistics.recordSuccess(DecodeBinarizer.values()[0], BarcodeFormat.QR_CODE);
+        statistics.recordSuccess(DecodeBinarizer.values()[0], BarcodeFormat.QR_CODE);
+        statistics.recordSuccess(DecodeBinarizer.values()[0], BarcodeFormat.QR_CODE);
+        assertEquals(BarcodeFormat.QR_CODE, reader.decode(bothCodes()).getBarcodeFormat());
+
+        // Fewer hits and the more expensive family, but the latest success.
+        statistics.recordSuccess(DecodeBinarizer.values()[0], BarcodeFormat.CODE_128);
+        assertEquals(BarcodeFormat.CODE_128, reader.decode(bothCodes()).getBarcodeFormat());
+
+        statistics.recordSuccess(DecodeBinarizer.values()[0], BarcodeFormat.QR_CODE);
+        assertEquals(BarcodeFormat.QR_CODE, reader.decode(bothCodes()).getBarcodeFormat());
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void oneDimensionalSkippedAfterTwoDimensionalFinderPatterns() throws NotFoundException {
+        newReader(true).decode(unreadableQrAndBarcode());
+    }
+
+    @Test
+    public void oneDimensionalKeptWhenSkipIsOff() throws NotFoundException {
+        FormatOrderedReader reader = newReader(false);
+        assertEquals(BarcodeFormat.CODE_128, reader.decode(unreadableQrAndBarcode()).getBarcodeFormat());
+    }
+
+    @Test
+    public void oneDimensionalKeptWithoutTwoDimensionalSymbol() throws NotFoundException {
+        BinaryBitmap barcodeOnly = new SyntheticFrames(FRAME_SIZE, FRAME_SIZE, 3)
+                .drawBars(SyntheticFrames.encodeCode128(), 20, 200, 2, 120)
+                .toBinaryBitmap();
+        assertEquals(BarcodeFormat.CODE_128, newReader(true).decode(barcodeOnly).getBarcodeFormat());
+    }
+
+    private FormatOrderedReader newReader(boolean skipOneDForTwoD) {
+        Map<DecodeHintType, Object> hints = new Hashtable<DecodeHintType, Object>();
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, Arrays.asList(BarcodeFormat.QR_CODE, BarcodeFormat.CODE_128));
+        return new FormatOrderedReader(hints, statistics, skipOneDForTwoD);
+    }
+
+    private static BinaryBitmap bothCodes() {
+        return new SyntheticFrames(FRAME_SIZE, FRAME_SIZE, 1)
+                .drawCode(SyntheticFrames.encodeQrCode(), QR_LEFT, QR_TOP, QR_MODULE_PIXELS)
+                .drawBars(SyntheticFrames.encodeCode128(), 20, 200, 2, 120)
+                .toBinaryBitmap();
+    }
+
+    private static BinaryBitmap unreadableQrAndBarcode() {
+        BitMatrix qrCode = SyntheticFrames.encodeQrCode();
+        return new SyntheticFrames(FRAME_SIZE, FRAME_SIZE, 2)
+                .drawCode(qrCode, QR_LEFT, QR_TOP, QR_MODULE_PIXELS)
+                .eraseQrData(qrCode, QR_LEFT, QR_TOP, QR_MODULE_PIXELS)
+                .drawBars(SyntheticFrames.encodeCode128(), 20, 200, 2, 120)
+                .toBinaryBitmap();
+    }
+}
@@ -0,0 +1,144 @@
+package com.liangmayong.qrcode.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.oned.Code128Writer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.util.Hashtable;
+import java.util.Random;
+
+/**
+ * Greyscale frames with codes drawn into them, for the tests and benchmarks of the readers. A
+ * frame is a light background with a little sensor noise, less than the binarizer takes for
+ * contrast, and dark modules.
+ */
+final class SyntheticFrames {
+
+    static final String QR_CONTENTS = "https://github.com/LiangMaYong/android_qrcode";
+    static final String CODE_128_CONTENTS = "LMY-0123456789";
+
+    private static final int LIGHT = 200;
+    private static final int DARK = 40;
+    private static final int NOISE = 16;
+
+    private final int width;
+    private final int height;
+    private final byte[] pixels;
+    private final Random random;
+
+    SyntheticFrames(int width, int height, long seed) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new byte[width * height];
+        this.random = new Random(seed);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) (LIGHT + random.nextInt(NOISE));
+        }
+    }
+
+    static BitMatrix encodeQrCode() {
+        Hashtable<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
+        hints.put(EncodeHintType.MARGIN, 0);
+        try {
+            return new QRCodeWriter().encode(QR_CONTENTS, BarcodeFormat.QR_CODE, 0, 0, hints);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return a one row matrix, one bit per bar module
+     */
+    static BitMatrix encodeCode128() {
+        try {
+            return new Code128Writer().encode(CODE_128_CONTENTS, BarcodeFormat.CODE_128, 0, 1);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Draws a 2D code with its top left corner at the given point.
+     */
+    SyntheticFrames drawCode(BitMatrix code, int left, int top, int modulePixels) {
+        for (int y = 0; y < code.getHeight() * modulePixels; y++) {
+            for (int x = 0; x < code.getWidth() * modulePixels; x++) {
+                if (code.get(x / modulePixels, y / modulePixels)) {
+                    setDark(left + x, top + y);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Draws a 1D code, the one row of the matrix stretched to the given bar height.
+     */
+    SyntheticFrames drawBars(BitMatrix bars, int left, int top, int modulePixels, int barHeight) {
+        for (int x = 0; x < bars.getWidth() * modulePixels; x++) {
+            if (bars.get(x / modulePixels, 0)) {
+                for (int y = 0; y < barHeight; y++) {
+                    setDark(left + x, top + y);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Turns every module of a QR code drawn at the given point light, except for the three
+     * finder patterns: a detector still finds the symbol, but there is nothing to decode.
+     */
+    SyntheticFrames eraseQrData(BitMatrix code, int left, int top, int modulePixels) {
+        int side = code.getWidth();
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                boolean finder = (x < 8 && y < 8) || (x >= side - 8 && y < 8) || (x < 8 && y >= side - 8);
+                if (!finder) {
+                    for (int dy = 0; dy < modulePixels; dy++) {
+                        for (int dx = 0; dx < modulePixels; dx++) {
+                            setLight(left + x * modulePixels + dx, top + y * modulePixels + dy);
+                        }
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Scatters dark blobs of a few pixels over the frame, like print or texture with no code.
+     */
+    SyntheticFrames drawClutter(int blobs, int maxBlobSize) {
+        for (int i = 0; i < blobs; i++) {
+            int blobWidth = 1 + random.nextInt(maxBlobSize);
+            int blobHeight = 1 + random.nextInt(maxBlobSize);
+            int left = random.nextInt(width - blobWidth);
+            int top = random.nextInt(height - blobHeight);
+            for (int y = top; y < top + blobHeight; y++) {
+                for (int x = left; x < left + blobWidth; x++) {
+                    setDark(x, y);
+                }
+            }
+        }
+        return this;
+    }
+
+    BinaryBitmap toBinaryBitmap() {
+        return new BinaryBitmap(new HybridBinarizer(
+                new PlanarYUVLuminanceSource(pixels, width, height, 0, 0, width, height, false)));
+    }
+
+    private void setDark(int x, int y) {
+        pixels[y * width + x] = (byte) (DARK + random.nextInt(NOISE));
+    }
+
+    private void setLight(int x, int y) {
+        pixels[y * width + x] = (byte) (LIGHT + random.nextInt(NOISE));
+    }
+}